@@ -0,0 +1,193 @@
+package it.units.expressionserver.client;
+
+import it.units.expressionserver.exceptions.ServerErrorException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A pipelined connection to the server: requests are written as soon as they are sent, without waiting for the
+ * responses to the previous ones, and a reader thread matches the responses to the requests in order, since the
+ * server answers the requests of a connection in the order it receives them.
+ * The writes of concurrent senders are coalesced, the last of them flushing the requests of all.
+ */
+class Connection implements AutoCloseable {
+    private static final String QUIT_COMMAND = "BYE";
+    private static final String OK_PREFIX = "OK;";
+    private static final String ERROR_PREFIX = "ERR: ";
+    private static final String PARTIAL_PREFIX = "PARTIAL;";
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    private final Socket socket;
+    private final BufferedWriter writer;
+    private final BufferedReader reader;
+    private final LatencyMetrics latencyMetrics;
+    private final ConcurrentLinkedQueue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger waitingWriters = new AtomicInteger();
+    private final Thread readerThread;
+    private volatile boolean broken;
+
+    private record PendingRequest(long sendTime, Consumer<String> partialResults, CompletableFuture<Reply> reply) {
+    }
+
+    /**
+     * Opens a new connection to the server.
+     *
+     * @param address              The address of the server.
+     * @param connectTimeoutMillis The time given to the server to accept the connection.
+     * @param latencyMetrics       The metrics the latencies of the requests are recorded in.
+     * @throws IOException If the connection cannot be opened.
+     */
+    Connection(InetSocketAddress address, int connectTimeoutMillis, LatencyMetrics latencyMetrics) throws IOException {
+        this.socket = new Socket();
+        this.socket.connect(address, connectTimeoutMillis);
+        this.socket.setTcpNoDelay(true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.latencyMetrics = latencyMetrics;
+        this.readerThread = new Thread(this::readResponses, "expression-client-" + socket.getLocalPort());
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    /**
+     * Sends a request without waiting for the responses to the previous ones.
+     *
+     * @param request        The raw request, on a single line.
+     * @param partialResults The consumer of the PARTIAL lines sent before the response of a streamed request, or null.
+     * @return The future response, failed with a ServerErrorException if the server answers with an error,
+     * or with an IOException if the connection fails.
+     */
+    CompletableFuture<Reply> send(String request, Consumer<String> partialResults) {
+        PendingRequest pendingRequest = new PendingRequest(System.nanoTime(), partialResults, new CompletableFuture<>());
+        waitingWriters.incrementAndGet();
+        try {
+            synchronized (writer) {
+                if (broken) {
+                    throw new IOException("Connection to the server is closed");
+                }
+                pendingRequests.add(pendingRequest);
+                outstanding.incrementAndGet();
+                writer.write(request);
+                writer.write('\n');
+                if (waitingWriters.decrementAndGet() == 0) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            waitingWriters.set(0);
+            fail(e);
+            pendingRequest.reply().completeExceptionally(e);
+        }
+        return pendingRequest.reply();
+    }
+
+    /**
+     * @return The number of requests sent whose response has not been read yet.
+     */
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return Whether the connection has failed or has been closed, in which case it cannot send requests anymore.
+     */
+    boolean isBroken() {
+        return broken;
+    }
+
+    private void readResponses() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PendingRequest pendingRequest = pendingRequests.peek();
+                if (pendingRequest == null) {
+                    throw new IOException("Unexpected response from the server: " + line);
+                }
+                if (line.startsWith(PARTIAL_PREFIX)) {
+                    if (pendingRequest.partialResults() != null) {
+                        pendingRequest.partialResults().accept(line);
+                    }
+                    continue;
+                }
+                pendingRequests.poll();
+                outstanding.decrementAndGet();
+                complete(pendingRequest, line);
+            }
+            fail(new IOException("Connection closed by the server"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void complete(PendingRequest pendingRequest, String line) {
+        long latencyNanos = System.nanoTime() - pendingRequest.sendTime();
+        if (line.startsWith(OK_PREFIX)) {
+            String[] components = line.split(";", 3);
+            try {
+                Reply reply = new Reply(components.length == 3 ? components[2] : "", Double.parseDouble(components[1]), latencyNanos);
+                latencyMetrics.record(latencyNanos, false);
+                pendingRequest.reply().complete(reply);
+                return;
+            } catch (NumberFormatException e) {
+                // reported as a malformed response below
+            }
+        }
+        latencyMetrics.record(latencyNanos, true);
+        pendingRequest.reply().completeExceptionally(new ServerErrorException(
+                line.startsWith(ERROR_PREFIX) ? line.substring(ERROR_PREFIX.length()) : "Malformed response: " + line));
+    }
+
+    /**
+     * Marks the connection as broken and fails the requests still waiting for their response.
+     */
+    private void fail(IOException cause) {
+        broken = true;
+        PendingRequest pendingRequest;
+        while ((pendingRequest = pendingRequests.poll()) != null) {
+            outstanding.decrementAndGet();
+            pendingRequest.reply().completeExceptionally(cause);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the connection is being discarded anyway
+        }
+    }
+
+    /**
+     * Sends the quit command and closes the connection once the responses to the requests already sent have been read.
+     */
+    @Override
+    public void close() {
+        synchronized (writer) {
+            if (!broken) {
+                try {
+                    writer.write(QUIT_COMMAND);
+                    writer.write('\n');
+                    writer.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        try {
+            readerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fail(new IOException("Connection to the server is closed"));
+    }
+}
@@ -0,0 +1,254 @@
+package it.units.expressionserver.client;
+
+import it.units.expressionserver.exceptions.ServerErrorException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous client of the expression server, for applications sending many requests.
+ * The requests are spread over a pool of pipelined connections, each request going to the connection with the fewest
+ * responses outstanding; connections are opened when needed, up to the size of the pool, and replaced when they fail.
+ * The computation requests sent through compute are also gathered, for a short delay or until enough of them
+ * are waiting, into a single BATCH request, whose items the server computes in parallel.
+ * The latencies seen by the client are recorded in its LatencyMetrics.
+ * Since each connection has its own handles, the variable values and expressions used through the pool should be
+ * prepared with PREPARE_GLOBAL_VARS and PREPARE_GLOBAL_EXPRS.
+ */
+public class ExpressionClient implements AutoCloseable {
+    /**
+     * The number of connections of the pool, when the client does not specify it.
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+    /**
+     * The maximum number of computation requests gathered in a BATCH request, when the client does not specify it.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    /**
+     * The time a computation request waits for others to be gathered with, when the client does not specify it.
+     */
+    public static final long DEFAULT_BATCH_DELAY_MICROS = 200;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final String BATCH_PREFIX = "BATCH|";
+    private static final String ITEM_SEPARATOR = "|";
+    private static final String ERROR_PREFIX = "ERR: ";
+    private static final ScheduledExecutorService BATCH_FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "expression-client-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final InetSocketAddress address;
+    private final Connection[] connections;
+    private final int maxBatchSize;
+    private final long batchDelayMicros;
+    private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+    private final Object batchLock = new Object();
+    private List<BatchItem> batch = new ArrayList<>();
+    private ScheduledFuture<?> batchFlush;
+    private volatile boolean closed;
+
+    private record BatchItem(String request, CompletableFuture<String> result) {
+    }
+
+    /**
+     * Constructs a new ExpressionClient instance with the default pool size and batching.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     */
+    public ExpressionClient(String host, int port) {
+        this(new InetSocketAddress(host, port), DEFAULT_POOL_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_BATCH_DELAY_MICROS);
+    }
+
+    /**
+     * Constructs a new ExpressionClient instance. No connection is opened until the first request is sent.
+     *
+     * @param address          The address of the server.
+     * @param poolSize         The maximum number of connections.
+     * @param maxBatchSize     The maximum number of computation requests gathered in a BATCH request, 1 not to gather them.
+     * @param batchDelayMicros The time a computation request waits for others to be gathered with.
+     * @throws IllegalArgumentException If the pool size or the batch size is not positive.
+     */
+    public ExpressionClient(InetSocketAddress address, int poolSize, int maxBatchSize, long batchDelayMicros) {
+        if (poolSize < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("The pool size and the batch size must be positive");
+        }
+        this.address = address;
+        this.connections = new Connection[poolSize];
+        this.maxBatchSize = maxBatchSize;
+        this.batchDelayMicros = batchDelayMicros;
+    }
+
+    /**
+     * Sends a request of any kind, such as a computation, a STAT or a PREPARE request.
+     *
+     * @param request The raw request.
+     * @return The future response, failed with a ServerErrorException if the server answers with an error,
+     * or with an IOException if the server cannot be reached.
+     */
+    public CompletableFuture<Reply> send(String request) {
+        return send(request, null);
+    }
+
+    /**
+     * Sends a request, typically a STREAM request, whose partial results are passed to the given consumer
+     * as they arrive, as "PARTIAL;elapsed;result;fraction" lines.
+     *
+     * @param request        The raw request.
+     * @param partialResults The consumer of the partial results, called by the thread reading the responses.
+     * @return The future final response.
+     */
+    public CompletableFuture<Reply> send(String request, Consumer<String> partialResults) {
+        if (request.indexOf('\n') >= 0 || request.indexOf('\r') >= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("A request must fit on a single line"));
+        }
+        try {
+            return connection().send(request, partialResults);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends a computation request, such as "MIN_GRID;x:0:1:9;(x+1)", gathered with the other computation requests
+     * sent at the same time into a single BATCH request.
+     *
+     * @param computationRequest The raw computation request.
+     * @return The future result of the computation, failed with a ServerErrorException if the server cannot compute it.
+     */
+    public CompletableFuture<String> compute(String computationRequest) {
+        if (maxBatchSize == 1 || computationRequest.contains(ITEM_SEPARATOR)) {
+            return send(computationRequest).thenApply(Reply::result);
+        }
+        BatchItem item = new BatchItem(computationRequest, new CompletableFuture<>());
+        List<BatchItem> fullBatch = null;
+        synchronized (batchLock) {
+            batch.add(item);
+            if (batch.size() >= maxBatchSize) {
+                fullBatch = takeBatch();
+            } else if (batch.size() == 1) {
+                batchFlush = BATCH_FLUSHER.schedule(this::flushBatch, batchDelayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            sendBatch(fullBatch);
+        }
+        return item.result();
+    }
+
+    /**
+     * Getter for the latencyMetrics.
+     *
+     * @return The latencies of the requests sent so far, a BATCH request counting as one.
+     */
+    public LatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    /**
+     * Sends the computation requests still gathered, then closes the connections once their responses have been read.
+     */
+    @Override
+    public void close() {
+        flushBatch();
+        synchronized (this) {
+            closed = true;
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the connection with the fewest responses outstanding, opening a new one when all the open ones are busy
+     * and the pool is not full, or in place of a broken one.
+     */
+    private synchronized Connection connection() throws IOException {
+        if (closed) {
+            throw new IOException("The client is closed");
+        }
+        int chosen = -1;
+        int freeSlot = -1;
+        for (int i = 0; i < connections.length; i++) {
+            Connection connection = connections[i];
+            if (connection == null || connection.isBroken()) {
+                if (freeSlot < 0) {
+                    freeSlot = i;
+                }
+            } else if (chosen < 0 || connection.getOutstanding() < connections[chosen].getOutstanding()) {
+                chosen = i;
+            }
+        }
+        if (chosen >= 0 && (connections[chosen].getOutstanding() == 0 || freeSlot < 0)) {
+            return connections[chosen];
+        }
+        connections[freeSlot] = new Connection(address, CONNECT_TIMEOUT_MILLIS, latencyMetrics);
+        return connections[freeSlot];
+    }
+
+    private List<BatchItem> takeBatch() {
+        List<BatchItem> taken = batch;
+        batch = new ArrayList<>();
+        if (batchFlush != null) {
+            batchFlush.cancel(false);
+            batchFlush = null;
+        }
+        return taken;
+    }
+
+    private void flushBatch() {
+        List<BatchItem> taken;
+        synchronized (batchLock) {
+            taken = takeBatch();
+        }
+        if (!taken.isEmpty()) {
+            sendBatch(taken);
+        }
+    }
+
+    private void sendBatch(List<BatchItem> items) {
+        if (items.size() == 1) {
+            BatchItem item = items.get(0);
+            send(item.request()).whenComplete((reply, failure) -> {
+                if (failure != null) {
+                    item.result().completeExceptionally(failure);
+                } else {
+                    item.result().complete(reply.result());
+                }
+            });
+            return;
+        }
+        String batchRequest = items.stream().map(BatchItem::request).collect(Collectors.joining(ITEM_SEPARATOR, BATCH_PREFIX, ""));
+        send(batchRequest).whenComplete((reply, failure) -> {
+            if (failure != null) {
+                items.forEach(item -> item.result().completeExceptionally(failure));
+                return;
+            }
+            String[] results = reply.result().split("\\" + ITEM_SEPARATOR, -1);
+            if (results.length != items.size()) {
+                ServerErrorException malformed = new ServerErrorException("Malformed batch response: " + reply.result());
+                items.forEach(item -> item.result().completeExceptionally(malformed));
+                return;
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].startsWith(ERROR_PREFIX)) {
+                    items.get(i).result().completeExceptionally(new ServerErrorException(results[i].substring(ERROR_PREFIX.length())));
+                } else {
+                    items.get(i).result().complete(results[i]);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+package it.units.expressionserver.client;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of the requests sent by an ExpressionClient, measured on the client side from the request being sent
+ * to its response being read, so that they include the network and the queueing behind the pipelined requests.
+ * The latencies are counted in a histogram of 16 linear buckets per power of two, which bounds the relative error
+ * of the percentiles to 1/16 while recording a latency costs a couple of atomic increments.
+ */
+public class LatencyMetrics {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param latencyNanos The latency, in nanoseconds.
+     * @param error        Whether the server answered with an error.
+     */
+    public void record(long latencyNanos, boolean error) {
+        long latency = Math.max(0, latencyNanos);
+        histogram.incrementAndGet(bucketOf(latency));
+        requests.increment();
+        if (error) {
+            errors.increment();
+        }
+        totalNanos.add(latency);
+        maxNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getAverageMillis() {
+        long count = requests.sum();
+        return count == 0 ? 0 : totalNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Estimates a percentile of the latencies.
+     *
+     * @param percentile The percentile, in [0, 1].
+     * @return The upper bound of the bucket holding the percentile, in milliseconds, or 0 if nothing has been recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long count = 0;
+        long[] counts = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = histogram.get(bucket);
+            count += counts[bucket];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos.get()) / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Formats the metrics as "requests=...;errors=...;avg=...;p50=...;p90=...;p99=...;max=...", with the latencies in milliseconds.
+     *
+     * @return The formatted metrics.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "requests=%d;errors=%d;avg=%.3f;p50=%.3f;p90=%.3f;p99=%.3f;max=%.3f",
+                getRequests(), getErrors(), getAverageMillis(), getPercentileMillis(0.5), getPercentileMillis(0.9),
+                getPercentileMillis(0.99), getMaxMillis());
+    }
+
+    private static int bucketOf(long latency) {
+        if (latency < SUB_BUCKETS) {
+            return (int) latency;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(latency);
+        int subBucket = (int) (latency >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
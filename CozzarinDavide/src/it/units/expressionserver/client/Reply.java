@@ -0,0 +1,18 @@
+package it.units.expressionserver.client;
+
+/**
+ * A successful response of the server, of the form "OK;responseTime;result".
+ *
+ * @param result       The result of the request.
+ * @param responseTime The response time measured by the server, in seconds.
+ * @param latencyNanos The latency measured by the client, from the request being sent to the response being read.
+ */
+public record Reply(String result, double responseTime, long latencyNanos) {
+    /**
+     * @return The result parsed as a number, as for the computation requests.
+     * @throws NumberFormatException If the result is not a number.
+     */
+    public double asDouble() {
+        return Double.parseDouble(result);
+    }
+}
@@ -0,0 +1,145 @@
+package it.units.expressionserver.domain;
+
+import java.util.DoubleSummaryStatistics;
+
+/**
+ * Mergeable, constant-memory aggregation of the values of the expressions of a computation request.
+ * Count, min, max and (compensated) sum are always tracked; the variance is tracked with Welford's algorithm
+ * and the quantiles with a QuantileSketch only when requested, since they make each value more expensive to add.
+ * Partial aggregates computed by different threads or servers are combined with merge.
+ */
+public class Aggregate {
+    private final DoubleSummaryStatistics statistics;
+    private final boolean trackVariance;
+    private final QuantileSketch quantileSketch;
+    private double mean;
+    private double m2;
+
+    public Aggregate() {
+        this(false, false);
+    }
+
+    /**
+     * Constructs a new empty Aggregate instance.
+     *
+     * @param trackVariance  Whether the variance of the values has to be tracked.
+     * @param trackQuantiles Whether the quantiles of the values have to be tracked.
+     */
+    public Aggregate(boolean trackVariance, boolean trackQuantiles) {
+        this.statistics = new DoubleSummaryStatistics();
+        this.trackVariance = trackVariance;
+        this.quantileSketch = trackQuantiles ? new QuantileSketch() : null;
+    }
+
+    private Aggregate(DoubleSummaryStatistics statistics, double mean, double m2) {
+        this.statistics = statistics;
+        this.trackVariance = true;
+        this.quantileSketch = null;
+        this.mean = mean;
+        this.m2 = m2;
+    }
+
+    /**
+     * Adds a value to the aggregate.
+     *
+     * @param value The value to add.
+     */
+    public void accept(double value) {
+        statistics.accept(value);
+        if (trackVariance) {
+            double delta = value - mean;
+            mean += delta / statistics.getCount();
+            m2 += delta * (value - mean);
+        }
+        if (quantileSketch != null) {
+            quantileSketch.accept(value);
+        }
+    }
+
+    /**
+     * Merges another aggregate into this one, as if all its values had been added to this aggregate.
+     * The other aggregate is left untouched.
+     *
+     * @param other The aggregate to merge.
+     */
+    public void merge(Aggregate other) {
+        long count = statistics.getCount();
+        long otherCount = other.statistics.getCount();
+        if (trackVariance && otherCount > 0) {
+            long totalCount = count + otherCount;
+            double delta = other.mean - mean;
+            mean += delta * otherCount / totalCount;
+            m2 += other.m2 + delta * delta * ((double) count * otherCount / totalCount);
+        }
+        statistics.combine(other.statistics);
+        if (quantileSketch != null && other.quantileSketch != null) {
+            quantileSketch.merge(other.quantileSketch);
+        }
+    }
+
+    public long getCount() {
+        return statistics.getCount();
+    }
+
+    public double getMin() {
+        return statistics.getMin();
+    }
+
+    public double getMax() {
+        return statistics.getMax();
+    }
+
+    public double getSum() {
+        return statistics.getSum();
+    }
+
+    public double getAverage() {
+        return statistics.getAverage();
+    }
+
+    /**
+     * @return The population standard deviation of the values.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(m2 / statistics.getCount());
+    }
+
+    /**
+     * @param q The rank of the quantile, between 0 and 1.
+     * @return The estimated quantile of the given rank.
+     */
+    public double getQuantile(double q) {
+        return quantileSketch.getQuantile(q);
+    }
+
+    /**
+     * Encodes the aggregate as "count,min,max,sum,mean,m2", without any loss of precision.
+     * The quantile sketch is not part of the encoding.
+     *
+     * @return The encoded aggregate.
+     */
+    public String encode() {
+        return statistics.getCount() + "," + statistics.getMin() + "," + statistics.getMax() + "," + statistics.getSum()
+                + "," + mean + "," + m2;
+    }
+
+    /**
+     * Decodes an aggregate encoded by encode.
+     *
+     * @param encodedAggregate The encoded aggregate.
+     * @return The decoded aggregate.
+     * @throws IllegalArgumentException If the aggregate is malformed.
+     */
+    public static Aggregate decode(String encodedAggregate) {
+        String[] components = encodedAggregate.split(",");
+        if (components.length != 6) {
+            throw new IllegalArgumentException("Malformed aggregate: " + encodedAggregate);
+        }
+        DoubleSummaryStatistics statistics = new DoubleSummaryStatistics(
+                Long.parseLong(components[0]),
+                Double.parseDouble(components[1]),
+                Double.parseDouble(components[2]),
+                Double.parseDouble(components[3]));
+        return new Aggregate(statistics, Double.parseDouble(components[4]), Double.parseDouble(components[5]));
+    }
+}
@@ -0,0 +1,93 @@
+package it.units.expressionserver.domain;
+
+import it.units.expressionserver.exceptions.VariableValuesException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocates the columns of variable values a TupleSpace is made of.
+ * Every range is generated directly into its column, without going through a list of boxed values:
+ * ranges shorter than the threshold into arrays on the heap, longer ones into direct buffers, outside of the heap,
+ * so that the heap usage and the work of the garbage collector do not grow with the size of the requests.
+ * The direct buffers are handed back by the TupleSpace once its request is completed, and kept in a bounded pool
+ * to be reused by the next large requests instead of waiting for the garbage collector to free them.
+ */
+public class ColumnAllocator {
+    private static final long MAX_POOLED_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_COLUMN_LENGTH = Integer.MAX_VALUE / Double.BYTES;
+
+    private final long offHeapThreshold;
+    private final Map<Integer, ArrayDeque<DoubleBuffer>> pool = new HashMap<>();
+    private long pooledBytes;
+
+    /**
+     * Constructs a new ColumnAllocator instance.
+     *
+     * @param offHeapThreshold The number of values from which a range is stored off the heap.
+     */
+    public ColumnAllocator(long offHeapThreshold) {
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    /**
+     * Allocates the column holding the values of a variable range.
+     * The position of the column is 0 and its limit is the number of values.
+     *
+     * @param variableValues The variable range.
+     * @return The column of the values.
+     * @throws VariableValuesException If the step is not greater than 0 or the range has too many values.
+     */
+    public DoubleBuffer allocate(VariableValues variableValues) throws VariableValuesException {
+        long[] length = new long[1];
+        variableValues.forEachValue(value -> length[0]++);
+        if (length[0] > MAX_COLUMN_LENGTH) {
+            throw new VariableValuesException("Too many values, at most " + MAX_COLUMN_LENGTH + " are allowed");
+        }
+        DoubleBuffer column = variableValues.countValues() < offHeapThreshold
+                ? DoubleBuffer.allocate((int) length[0])
+                : take((int) length[0]);
+        variableValues.forEachValue(column::put);
+        return column.flip();
+    }
+
+    /**
+     * Hands back a column no longer in use. Columns on the heap are left to the garbage collector,
+     * while direct ones are pooled for reuse.
+     *
+     * @param column The column to release.
+     */
+    public void release(DoubleBuffer column) {
+        if (!column.isDirect()) {
+            return;
+        }
+        long bytes = (long) column.capacity() * Double.BYTES;
+        synchronized (pool) {
+            if (pooledBytes + bytes > MAX_POOLED_BYTES) {
+                return;
+            }
+            pooledBytes += bytes;
+            pool.computeIfAbsent(column.capacity(), capacity -> new ArrayDeque<>()).push(column.clear());
+        }
+    }
+
+    /**
+     * Takes from the pool, or allocates, a direct column able to hold the given number of values.
+     * Capacities are rounded up to a power of two, so that columns of similar lengths can replace each other.
+     */
+    private DoubleBuffer take(int length) {
+        int capacity = Math.min(MAX_COLUMN_LENGTH, Integer.highestOneBit(Math.max(1, length - 1)) << 1);
+        synchronized (pool) {
+            ArrayDeque<DoubleBuffer> columns = pool.get(capacity);
+            if (columns != null && !columns.isEmpty()) {
+                pooledBytes -= (long) capacity * Double.BYTES;
+                return columns.pop();
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+}
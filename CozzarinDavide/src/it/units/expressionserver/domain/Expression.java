@@ -1,6 +1,11 @@
 package it.units.expressionserver.domain;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ToDoubleFunction;
 
 import it.units.expressionserver.domain.nodes.Constant;
 import it.units.expressionserver.domain.nodes.Node;
@@ -9,7 +14,11 @@ import it.units.expressionserver.domain.nodes.Variable;
 
 
 public class Expression {
+    private record Compiled(List<String> variableNames, ToDoubleFunction<double[]> function) {
+    }
+
     private final Node root;
+    private volatile Compiled compiled;
 
     /**
      * Constructs a new Expression instance with the specified root node.
@@ -50,5 +59,90 @@ public class Expression {
         }
     }
 
+    /**
+     * Compiles the expression into a function of a tuple of values, where the value of each variable
+     * is found at the position of its name in the given list. Evaluating the compiled function does not
+     * need any map lookup nor allocation. The last compiled function is kept, so that an expression shared
+     * by several requests, as the prepared ones are, is compiled again only when the variables change.
+     *
+     * @param variableNames The names of the variables, in the order their values appear in the tuples.
+     * @return The compiled expression.
+     */
+    public ToDoubleFunction<double[]> compile(List<String> variableNames) {
+        Compiled last = compiled;
+        if (last != null && last.variableNames().equals(variableNames)) {
+            return last.function();
+        }
+        ToDoubleFunction<double[]> function = compile(root, variableNames);
+        compiled = new Compiled(List.copyOf(variableNames), function);
+        return function;
+    }
+    private ToDoubleFunction<double[]> compile(Node node, List<String> variableNames) {
+        if (node instanceof Constant) {
+            double value = ((Constant) node).getValue();
+            return tuple -> value;
+        } else if (node instanceof Variable) {
+            String variableName = ((Variable) node).getName();
+            int index = variableNames.indexOf(variableName);
+            if (index < 0) {
+                return tuple -> {
+                    throw new IllegalArgumentException("(ComputationException) Unvalued variable " + variableName);
+                };
+            }
+            return tuple -> tuple[index];
+        } else if (node instanceof Operator operator) {
+            ToDoubleFunction<double[]> left = compile(operator.getChildren().get(0), variableNames);
+            ToDoubleFunction<double[]> right = compile(operator.getChildren().get(1), variableNames);
+            DoubleBinaryOperator operation = operator.getType().getOperation();
+            return tuple -> operation.applyAsDouble(left.applyAsDouble(tuple), right.applyAsDouble(tuple));
+        } else {
+            throw new IllegalArgumentException("Unknown Node type: " + node.getClass());
+        }
+    }
+
+    /**
+     * Counts the nodes of the expression tree.
+     *
+     * @return The number of nodes of the expression tree.
+     */
+    public int countNodes() {
+        return countNodes(root);
+    }
+    private int countNodes(Node node) {
+        int nodes = 1;
+        for (Node child : node.getChildren()) {
+            nodes += countNodes(child);
+        }
+        return nodes;
+    }
+
+    /**
+     * Collects the names of the variables the expression refers to.
+     *
+     * @return The names of the variables of the expression.
+     */
+    public Set<String> getVariableNames() {
+        Set<String> variableNames = new HashSet<>();
+        collectVariableNames(root, variableNames);
+        return variableNames;
+    }
+    private void collectVariableNames(Node node, Set<String> variableNames) {
+        if (node instanceof Variable variable) {
+            variableNames.add(variable.getName());
+        }
+        for (Node child : node.getChildren()) {
+            collectVariableNames(child, variableNames);
+        }
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
 }
 
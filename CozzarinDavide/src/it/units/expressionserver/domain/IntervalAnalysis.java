@@ -0,0 +1,179 @@
+package it.units.expressionserver.domain;
+
+import it.units.expressionserver.domain.nodes.Constant;
+import it.units.expressionserver.domain.nodes.Node;
+import it.units.expressionserver.domain.nodes.Operator;
+import it.units.expressionserver.domain.nodes.Variable;
+
+import java.util.Map;
+
+/**
+ * Interval analysis of an expression over a box of variable values: it bounds the values of each node of the
+ * expression tree and infers how the expression varies with one of the variables, the others being fixed.
+ * The bounds are computed with the same floating point operations used by the evaluation, all of which are
+ * monotone in each operand, so they hold for the evaluated values and not only for their real counterparts.
+ * The analysis gives up as soon as a node might evaluate to NaN or to an infinity.
+ */
+public class IntervalAnalysis {
+
+    /**
+     * The way a value varies when a variable increases. When used as the sign of a value, CONSTANT means zero,
+     * NONDECREASING non-negative and NONINCREASING non-positive.
+     */
+    public enum Monotonicity {
+        CONSTANT,
+        NONDECREASING,
+        NONINCREASING,
+        UNKNOWN;
+
+        private Monotonicity flip() {
+            return switch (this) {
+                case NONDECREASING -> NONINCREASING;
+                case NONINCREASING -> NONDECREASING;
+                default -> this;
+            };
+        }
+
+        /**
+         * Combines the monotonicity of an operation in each of its two operands.
+         */
+        private Monotonicity and(Monotonicity other) {
+            if (this == CONSTANT) {
+                return other;
+            }
+            if (other == CONSTANT || other == this) {
+                return this;
+            }
+            return UNKNOWN;
+        }
+
+        /**
+         * Scales a monotonicity by a sign.
+         */
+        private Monotonicity times(Monotonicity sign) {
+            if (this == CONSTANT || sign == CONSTANT) {
+                return CONSTANT;
+            }
+            if (this == UNKNOWN || sign == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return this == sign ? NONDECREASING : NONINCREASING;
+        }
+    }
+
+    private record Interval(double lower, double upper, Monotonicity monotonicity) {
+        private Monotonicity sign() {
+            if (lower == 0 && upper == 0) {
+                return Monotonicity.CONSTANT;
+            }
+            if (lower >= 0) {
+                return Monotonicity.NONDECREASING;
+            }
+            if (upper <= 0) {
+                return Monotonicity.NONINCREASING;
+            }
+            return Monotonicity.UNKNOWN;
+        }
+
+        private boolean contains(double value) {
+            return lower <= value && value <= upper;
+        }
+    }
+
+    private final Map<String, double[]> bounds;
+
+    /**
+     * Constructs a new IntervalAnalysis instance over the given box.
+     *
+     * @param bounds The smallest and the largest value of each variable.
+     */
+    public IntervalAnalysis(Map<String, double[]> bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Infers how an expression varies with a variable over the box.
+     *
+     * @param expression The expression to analyze.
+     * @param variable   The name of the variable.
+     * @return The monotonicity of the expression in the variable, or null if the expression might evaluate
+     * to NaN or to an infinity, or refers to a variable outside of the box.
+     */
+    public Monotonicity monotonicity(Expression expression, String variable) {
+        Interval interval = analyze(expression.getRoot(), variable);
+        return interval == null ? null : interval.monotonicity();
+    }
+
+    private Interval analyze(Node node, String variable) {
+        if (node instanceof Constant constant) {
+            return new Interval(constant.getValue(), constant.getValue(), Monotonicity.CONSTANT);
+        }
+        if (node instanceof Variable variableNode) {
+            double[] range = bounds.get(variableNode.getName());
+            if (range == null) {
+                return null;
+            }
+            return new Interval(range[0], range[1],
+                    variableNode.getName().equals(variable) ? Monotonicity.NONDECREASING : Monotonicity.CONSTANT);
+        }
+        if (!(node instanceof Operator operator)) {
+            return null;
+        }
+        Interval left = analyze(operator.getChildren().get(0), variable);
+        Interval right = analyze(operator.getChildren().get(1), variable);
+        if (left == null || right == null) {
+            return null;
+        }
+
+        Monotonicity monotonicity;
+        switch (operator.getType()) {
+            case SUM -> monotonicity = left.monotonicity().and(right.monotonicity());
+            case SUBTRACTION -> monotonicity = left.monotonicity().and(right.monotonicity().flip());
+            case MULTIPLICATION -> monotonicity = left.monotonicity().times(right.sign())
+                    .and(right.monotonicity().times(left.sign()));
+            case DIVISION -> {
+                if (right.contains(0)) {
+                    return null;
+                }
+                monotonicity = left.monotonicity().times(right.sign())
+                        .and(right.monotonicity().times(left.sign().flip()));
+            }
+            case POWER -> {
+                if (left.lower() < 0 || (left.lower() == 0 && right.lower() <= 0)) {
+                    return null;
+                }
+                Monotonicity logarithmSign = left.lower() >= 1 ? Monotonicity.NONDECREASING
+                        : left.upper() <= 1 ? Monotonicity.NONINCREASING
+                        : Monotonicity.UNKNOWN;
+                if (left.lower() == 1 && left.upper() == 1) {
+                    logarithmSign = Monotonicity.CONSTANT;
+                }
+                monotonicity = left.monotonicity().times(right.sign())
+                        .and(right.monotonicity().times(logarithmSign));
+            }
+            default -> {
+                return null;
+            }
+        }
+        return bound(operator.getType(), left, right, monotonicity);
+    }
+
+    /**
+     * Bounds the result of an operation monotone in each operand, which is extreme at the corners of the operand box.
+     */
+    private static Interval bound(Operator.Type type, Interval left, Interval right, Monotonicity monotonicity) {
+        double lower = Double.POSITIVE_INFINITY;
+        double upper = Double.NEGATIVE_INFINITY;
+        for (double a : new double[]{left.lower(), left.upper()}) {
+            for (double b : new double[]{right.lower(), right.upper()}) {
+                double value = type.getOperation().applyAsDouble(a, b);
+                lower = Math.min(lower, value);
+                upper = Math.max(upper, value);
+            }
+        }
+        if (!Double.isFinite(lower) || !Double.isFinite(upper)) {
+            return null;
+        }
+        return new Interval(lower, upper, monotonicity);
+    }
+}
@@ -0,0 +1,169 @@
+package it.units.expressionserver.domain;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A mergeable streaming quantile sketch in the style of KLL (Karnin, Lang, Liberty).
+ * Values are kept in a hierarchy of compactors: when a level is full it is sorted and every other value,
+ * starting from a random offset, is promoted to the next level with twice the weight, while the rest is discarded.
+ * Memory stays bounded by O(k log(n / k)) values, and quantiles are exact as long as no compaction happened,
+ * that is for fewer than k values, since the first compaction happens when the k-th value is added.
+ */
+public class QuantileSketch {
+    private static final int DEFAULT_K = 200;
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 8;
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final int k;
+    private final SplittableRandom random = new SplittableRandom(SEED);
+    private double[][] levels = new double[0][];
+    private int[] levelSizes = new int[0];
+    private long count;
+    private int retained;
+    private int totalCapacity;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Constructs a new QuantileSketch instance.
+     *
+     * @param k The capacity of the top level, which drives the accuracy (the rank error is about 1.7 / k).
+     */
+    public QuantileSketch(int k) {
+        this.k = k;
+        addLevel();
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value The value to add.
+     */
+    public void accept(double value) {
+        append(0, value);
+        count++;
+        if (retained >= totalCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Merges another sketch into this one. The other sketch is left untouched.
+     *
+     * @param other The sketch to merge.
+     */
+    public void merge(QuantileSketch other) {
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int level = 0; level < other.levels.length; level++) {
+            for (int i = 0; i < other.levelSizes[level]; i++) {
+                append(level, other.levels[level][i]);
+            }
+        }
+        count += other.count;
+        while (retained >= totalCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * @return The number of values added to the sketch, including the merged ones.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimates the quantile of the given rank, using the nearest-rank definition:
+     * the smallest value whose rank is at least q times the number of values.
+     *
+     * @param q The rank of the quantile, between 0 and 1.
+     * @return The estimated quantile, or NaN if the sketch is empty.
+     */
+    public double getQuantile(double q) {
+        if (retained == 0) {
+            return Double.NaN;
+        }
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int[] order = new int[retained];
+        int n = 0;
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < levelSizes[level]; i++) {
+                values[n] = levels[level][i];
+                weights[n] = 1L << level;
+                order[n] = n;
+                n++;
+            }
+        }
+        Integer[] sorted = Arrays.stream(order).boxed().toArray(Integer[]::new);
+        Arrays.sort(sorted, (a, b) -> Double.compare(values[a], values[b]));
+
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        double targetRank = Math.max(1, Math.ceil(q * totalWeight));
+        long cumulativeWeight = 0;
+        for (int index : sorted) {
+            cumulativeWeight += weights[index];
+            if (cumulativeWeight >= targetRank) {
+                return values[index];
+            }
+        }
+        return values[sorted[sorted.length - 1]];
+    }
+
+    private void compress() {
+        for (int level = 0; level < levels.length; level++) {
+            if (levelSizes[level] < capacity(level)) {
+                continue;
+            }
+            if (level + 1 == levels.length) {
+                addLevel();
+            }
+            double[] values = levels[level];
+            int size = levelSizes[level];
+            // an odd value out stays at this level, so that the promoted half keeps the exact weight
+            int compacted = size - (size % 2);
+            Arrays.sort(values, 0, compacted);
+            for (int i = random.nextInt(2); i < compacted; i += 2) {
+                append(level + 1, values[i]);
+            }
+            if (compacted < size) {
+                values[0] = values[size - 1];
+            }
+            levelSizes[level] = size - compacted;
+            retained -= compacted;
+            return;
+        }
+    }
+
+    private void append(int level, double value) {
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][levelSizes[level]++] = value;
+        retained++;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levelSizes = Arrays.copyOf(levelSizes, levelSizes.length + 1);
+        levels[levels.length - 1] = new double[MIN_CAPACITY];
+        totalCapacity = 0;
+        for (int level = 0; level < levels.length; level++) {
+            totalCapacity += capacity(level);
+        }
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - level - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+}
@@ -0,0 +1,196 @@
+package it.units.expressionserver.domain;
+
+import java.math.BigInteger;
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * The space of the tuples of variable values on which the expressions of a computation request are evaluated.
+ * Each tuple is identified by an index in [0, size), so that the space can be split in ranges evaluated
+ * independently: in GRID mode the index enumerates the cartesian product of the variable ranges
+ * (the last variable varying fastest), in LIST mode it is the position in the element-wise merge of the ranges.
+ * The values of each variable are held in a column allocated by a ColumnAllocator, possibly off the heap,
+ * and handed back to it when the space is closed at the end of its request.
+ */
+public class TupleSpace implements AutoCloseable {
+
+    public enum Mode {
+        GRID,
+        LIST
+    }
+
+    private final Mode mode;
+    private final List<String> variableNames;
+    private final DoubleBuffer[] values;
+    private final ColumnAllocator columnAllocator;
+    private final long size;
+
+    /**
+     * Constructs a new TupleSpace instance over the given variable ranges.
+     * If the ranges cannot be combined, the columns are handed back to the allocator before throwing.
+     *
+     * @param mode            The way the variable ranges are combined into tuples.
+     * @param variableNames   The names of the variables, in the order their values appear in the tuples.
+     * @param columns         The values of each variable, in the same order as the names.
+     * @param columnAllocator The allocator of the columns, which they are handed back to when the space is closed.
+     * @throws IllegalArgumentException If variable ranges have different lengths in LIST mode.
+     */
+    public TupleSpace(Mode mode, List<String> variableNames, List<DoubleBuffer> columns, ColumnAllocator columnAllocator) {
+        this.mode = mode;
+        this.variableNames = variableNames;
+        this.values = columns.toArray(new DoubleBuffer[0]);
+        this.columnAllocator = columnAllocator;
+        try {
+            if (mode == Mode.LIST) {
+                for (DoubleBuffer column : values) {
+                    if (column.limit() != values[0].limit()) {
+                        throw new IllegalArgumentException("All non-empty variable ranges must have the same length for element-wise merging. Check the length of the lists.");
+                    }
+                }
+                this.size = values.length == 0 ? 0 : values[0].limit();
+            } else {
+                long product = 1;
+                for (DoubleBuffer column : values) {
+                    product = Math.multiplyExact(product, column.limit());
+                }
+                this.size = product;
+            }
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * @return The number of tuples in the space.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Feeds the tuples whose index lies in [from, to) to the given consumer.
+     * The same array is reused for all the tuples, so the consumer must not keep a reference to it.
+     *
+     * @param from     The index of the first tuple, inclusive.
+     * @param to       The index of the last tuple, exclusive.
+     * @param consumer The consumer of the tuples.
+     */
+    public void forEach(long from, long to, Consumer<double[]> consumer) {
+        if (from >= to) {
+            return;
+        }
+        double[] tuple = new double[values.length];
+        if (mode == Mode.LIST) {
+            for (int index = (int) from; index < to; index++) {
+                for (int d = 0; d < values.length; d++) {
+                    tuple[d] = values[d].get(index);
+                }
+                consumer.accept(tuple);
+            }
+            return;
+        }
+
+        int[] digits = new int[values.length];
+        long remainder = from;
+        for (int d = values.length - 1; d >= 0; d--) {
+            digits[d] = (int) (remainder % values[d].limit());
+            remainder /= values[d].limit();
+            tuple[d] = values[d].get(digits[d]);
+        }
+        for (long index = from; index < to; index++) {
+            consumer.accept(tuple);
+            for (int d = values.length - 1; d >= 0; d--) {
+                if (++digits[d] < values[d].limit()) {
+                    tuple[d] = values[d].get(digits[d]);
+                    break;
+                }
+                digits[d] = 0;
+                tuple[d] = values[d].get(0);
+            }
+        }
+    }
+
+    /**
+     * Feeds to the given consumer the tuples at the positions in [from, to) of the permutation of the space
+     * mapping the position p to the index (multiplier * p + offset) mod size. The multiplier must be coprime
+     * with the size, so that each tuple is visited exactly once over all the positions.
+     * The same array is reused for all the tuples, so the consumer must not keep a reference to it.
+     *
+     * @param from       The first position, inclusive.
+     * @param to         The last position, exclusive.
+     * @param multiplier The multiplier of the permutation, in [1, size).
+     * @param offset     The offset of the permutation, in [0, size).
+     * @param consumer   The consumer of the tuples.
+     */
+    public void forEachPermuted(long from, long to, long multiplier, long offset, Consumer<double[]> consumer) {
+        if (from >= to) {
+            return;
+        }
+        double[] tuple = new double[values.length];
+        long index = BigInteger.valueOf(multiplier).multiply(BigInteger.valueOf(from)).add(BigInteger.valueOf(offset))
+                .mod(BigInteger.valueOf(size)).longValue();
+        for (long position = from; position < to; position++) {
+            fill(index, tuple);
+            consumer.accept(tuple);
+            index += multiplier;
+            if (index >= size) {
+                index -= size;
+            }
+        }
+    }
+
+    /**
+     * Feeds to the given consumer tuples drawn uniformly at random from the space, with replacement.
+     * The same array is reused for all the tuples, so the consumer must not keep a reference to it.
+     *
+     * @param samples  The number of tuples to draw.
+     * @param random   The source of randomness.
+     * @param consumer The consumer of the tuples.
+     */
+    public void forEachSample(long samples, SplittableRandom random, Consumer<double[]> consumer) {
+        if (size == 0) {
+            return;
+        }
+        double[] tuple = new double[values.length];
+        for (long i = 0; i < samples; i++) {
+            fill(random.nextLong(size), tuple);
+            consumer.accept(tuple);
+        }
+    }
+
+    private void fill(long index, double[] tuple) {
+        if (mode == Mode.LIST) {
+            for (int d = 0; d < values.length; d++) {
+                tuple[d] = values[d].get((int) index);
+            }
+            return;
+        }
+        long remainder = index;
+        for (int d = values.length - 1; d >= 0; d--) {
+            int length = values[d].limit();
+            tuple[d] = values[d].get((int) (remainder % length));
+            remainder /= length;
+        }
+    }
+
+    /**
+     * Hands the columns back to their allocator. The space must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (DoubleBuffer column : values) {
+            columnAllocator.release(column);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import it.units.expressionserver.exceptions.VariableValuesException;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.DoubleConsumer;
 
 public class VariableValues {
 
@@ -37,21 +38,46 @@ public class VariableValues {
 
     /**
      * Generates a list of values within the specified range based on the lower, step, and upper bounds.
+     * The list is not retained, since prepared handles and batches may hold the instance for a long time.
      *
      * @return A list of generated values within the specified range.
      * @throws VariableValuesException If the step is not greater than 0.
      */
     public List<Double> generateValues() throws VariableValuesException {
         List<Double> values = new ArrayList<>();
+        forEachValue(values::add);
+        return values;
+    }
+
+    /**
+     * Feeds the values within the specified range to the given consumer, in increasing order, without storing them.
+     *
+     * @param consumer The consumer of the values.
+     * @throws VariableValuesException If the step is not greater than 0.
+     */
+    public void forEachValue(DoubleConsumer consumer) throws VariableValuesException {
         if (step <= 0) {
             throw new VariableValuesException("Step should be greater than 0");
         }
-
         for (double value = lower; value <= upper; value = round(value + step)) {
-            values.add(value);
+            consumer.accept(value);
         }
+    }
 
-        return values;
+    /**
+     * Counts the values within the specified range without generating them, estimating the count from the step.
+     *
+     * @return The number of values within the specified range.
+     * @throws VariableValuesException If the step is not greater than 0.
+     */
+    public long countValues() throws VariableValuesException {
+        if (step <= 0) {
+            throw new VariableValuesException("Step should be greater than 0");
+        }
+        if (lower > upper) {
+            return 0;
+        }
+        return (long) Math.floor(round((upper - lower) / step)) + 1;
     }
 
     private double round(double value) {
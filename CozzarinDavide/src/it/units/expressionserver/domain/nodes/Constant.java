@@ -1,5 +1,6 @@
 package it.units.expressionserver.domain.nodes;
 
+import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.Objects;
 
@@ -31,8 +32,14 @@ import java.util.Objects;
         }
 
 
+        /**
+         * Returns the constant in plain decimal notation, so that it can be parsed back by the Parser.
+         */
         @Override
         public String toString() {
+            if (Double.isFinite(value)) {
+                return new BigDecimal(Double.toString(value)).toPlainString();
+            }
             return Double.toString(value);
         }
 
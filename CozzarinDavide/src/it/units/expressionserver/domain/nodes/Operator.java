@@ -2,23 +2,26 @@ package it.units.expressionserver.domain.nodes;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Operator extends Node {
 
     public enum Type {
-        SUM('+', a -> a[0] + a[1]),
-        SUBTRACTION('-', a -> a[0] - a[1]),
-        MULTIPLICATION('*', a -> a[0] * a[1]),
-        DIVISION('/', a -> a[0] / a[1]),
-        POWER('^', a -> Math.pow(a[0], a[1]));
+        SUM('+', (a, b) -> a + b),
+        SUBTRACTION('-', (a, b) -> a - b),
+        MULTIPLICATION('*', (a, b) -> a * b),
+        DIVISION('/', (a, b) -> a / b),
+        POWER('^', Math::pow);
         private final char symbol;
+        private final DoubleBinaryOperator operation;
         private final Function<double[], Double> function;
 
-        Type(char symbol, Function<double[], Double> function) {
+        Type(char symbol, DoubleBinaryOperator operation) {
             this.symbol = symbol;
-            this.function = function;
+            this.operation = operation;
+            this.function = a -> operation.applyAsDouble(a[0], a[1]);
         }
 
         public char getSymbol() {
@@ -28,6 +31,10 @@ public class Operator extends Node {
         public Function<double[], Double> getFunction() {
             return function;
         }
+
+        public DoubleBinaryOperator getOperation() {
+            return operation;
+        }
     }
 
     private final Type type;
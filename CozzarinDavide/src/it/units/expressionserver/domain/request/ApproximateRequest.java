@@ -0,0 +1,170 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A computation request of an approximate kind, such as AVG_GRID_APPROX:0.01:0.95, evaluated only on tuples drawn
+ * uniformly at random from its tuple space.
+ * For AVG and SUM, a pilot sample estimates the variance of the values, from which the sample size needed for the
+ * requested relative error at the requested confidence level is derived; the response holds the estimate, its
+ * confidence interval and the number of tuples sampled, as "estimate;ci=lower:upper;samples=n".
+ * For MIN and MAX, the sample is large enough for its extreme to fall, with the requested confidence, among the
+ * requested fraction of the most extreme values; since the true extreme might not have been sampled, the response
+ * marks the result as a bound, as "value;bound=upper;samples=n" for MIN and "value;bound=lower;samples=n" for MAX.
+ * When the sample would not be much smaller than the tuple space, the request is computed exactly instead.
+ */
+public class ApproximateRequest implements Request {
+    /**
+     * The relative error, or the fraction of extreme values for MIN and MAX, when the request does not specify it.
+     */
+    public static final double DEFAULT_RELATIVE_ERROR = 0.01;
+    /**
+     * The confidence level, when the request does not specify it.
+     */
+    public static final double DEFAULT_CONFIDENCE = 0.95;
+    private static final long PILOT_SAMPLES = 1_000;
+    private static final long MIN_SAMPLING_RATIO = 4;
+
+    private final ComputationRequest computationRequest;
+    private final double relativeError;
+    private final double confidence;
+
+    /**
+     * Constructs a new ApproximateRequest instance.
+     *
+     * @param computationRequest The exact counterpart of the request.
+     * @param relativeError      The relative error of AVG and SUM, or the fraction of extreme values for MIN and MAX, in (0, 1).
+     * @param confidence         The confidence level, in (0, 1).
+     * @throws IllegalArgumentException If the relative error or the confidence level is not in (0, 1).
+     */
+    public ApproximateRequest(ComputationRequest computationRequest, double relativeError, double confidence) {
+        if (!(relativeError > 0 && relativeError < 1) || !(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("The relative error and the confidence of an approximate request must be between 0 and 1");
+        }
+        this.computationRequest = computationRequest;
+        this.relativeError = relativeError;
+        this.confidence = confidence;
+    }
+
+    public ComputationRequest getComputationRequest() {
+        return this.computationRequest;
+    }
+
+    /**
+     * Processes the approximate request and returns its estimate.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @return The response holding the estimate and its error bounds.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        String operation = computationRequest.getComputationKind().split("_")[0];
+        String result;
+        try (TupleSpace tupleSpace = computationRequest.createTupleSpace(server.getColumnAllocator())) {
+            result = switch (operation) {
+                case "AVG", "SUM" -> estimateMean(server, tupleSpace, operation.equals("SUM"));
+                case "MIN", "MAX" -> estimateExtreme(server, tupleSpace, operation.equals("MIN"));
+                default -> throw new ProcessException("Approximate computation not supported for " + operation);
+            };
+        }
+        return new OkResponse(result, System.nanoTime() - startTime, server.getServerStats());
+    }
+
+    private String estimateMean(Server server, TupleSpace tupleSpace, boolean sum) throws ProcessException {
+        long size = tupleSpace.size();
+        if (size < PILOT_SAMPLES * MIN_SAMPLING_RATIO) {
+            String exact = computeExactly(server, tupleSpace);
+            return exact + ";ci=" + exact + ":" + exact + ";samples=" + size;
+        }
+        double z = normalQuantile((1 + confidence) / 2);
+        SplittableRandom random = new SplittableRandom();
+        List<ToDoubleFunction<double[]>> compiledExpressions = compile(tupleSpace);
+        Aggregate tupleSums = new Aggregate(true, false);
+        sample(tupleSpace, PILOT_SAMPLES, random, compiledExpressions, tupleSums);
+
+        double pilotDeviation = sampleStandardDeviation(tupleSums);
+        double neededSamples = Math.ceil(Math.pow(z * pilotDeviation / (relativeError * Math.abs(tupleSums.getAverage())), 2));
+        if (!(neededSamples * MIN_SAMPLING_RATIO < size)) {
+            String exact = computeExactly(server, tupleSpace);
+            return exact + ";ci=" + exact + ":" + exact + ";samples=" + size;
+        }
+        sample(tupleSpace, (long) neededSamples - PILOT_SAMPLES, random, compiledExpressions, tupleSums);
+
+        double scale = sum ? size : 1.0 / compiledExpressions.size();
+        double estimate = tupleSums.getAverage() * scale;
+        double halfWidth = z * sampleStandardDeviation(tupleSums) / Math.sqrt(tupleSums.getCount()) * Math.abs(scale);
+        return String.format(Locale.US, "%.6f;ci=%.6f:%.6f;samples=%d", estimate, estimate - halfWidth, estimate + halfWidth, tupleSums.getCount());
+    }
+
+    private String estimateExtreme(Server server, TupleSpace tupleSpace, boolean min) throws ProcessException {
+        long size = tupleSpace.size();
+        double neededSamples = Math.ceil(Math.log(1 - confidence) / Math.log(1 - relativeError));
+        if (!(neededSamples * MIN_SAMPLING_RATIO < size)) {
+            return computeExactly(server, tupleSpace) + ";bound=exact;samples=" + size;
+        }
+        List<ToDoubleFunction<double[]>> compiledExpressions = compile(tupleSpace);
+        Aggregate values = new Aggregate();
+        tupleSpace.forEachSample((long) neededSamples, new SplittableRandom(), tuple -> {
+            for (ToDoubleFunction<double[]> compiledExpression : compiledExpressions) {
+                values.accept(compiledExpression.applyAsDouble(tuple));
+            }
+        });
+        return String.format(Locale.US, "%.6f;bound=%s;samples=%d", min ? values.getMin() : values.getMax(), min ? "upper" : "lower", (long) neededSamples);
+    }
+
+    private String computeExactly(Server server, TupleSpace tupleSpace) throws ProcessException {
+        Aggregate aggregate = computationRequest.evaluate(server.getComputationScheduler(), Thread.currentThread(), tupleSpace, 0, tupleSpace.size());
+        return String.format(Locale.US, "%.6f", computationRequest.summarize(aggregate, 1));
+    }
+
+    private List<ToDoubleFunction<double[]>> compile(TupleSpace tupleSpace) {
+        return computationRequest.getExpressions().stream()
+                .map(expression -> expression.compile(tupleSpace.getVariableNames()))
+                .toList();
+    }
+
+    /**
+     * Adds to the aggregate the sum of the values of the expressions on each sampled tuple, since the tuples,
+     * and not the single values, are what is drawn independently.
+     */
+    private static void sample(TupleSpace tupleSpace, long samples, SplittableRandom random, List<ToDoubleFunction<double[]>> compiledExpressions, Aggregate tupleSums) {
+        tupleSpace.forEachSample(samples, random, tuple -> {
+            double tupleSum = 0;
+            for (ToDoubleFunction<double[]> compiledExpression : compiledExpressions) {
+                tupleSum += compiledExpression.applyAsDouble(tuple);
+            }
+            tupleSums.accept(tupleSum);
+        });
+    }
+
+    private static double sampleStandardDeviation(Aggregate aggregate) {
+        long count = aggregate.getCount();
+        return aggregate.getStandardDeviation() * Math.sqrt((double) count / (count - 1));
+    }
+
+    /**
+     * Approximates the quantile of the standard normal distribution (Abramowitz and Stegun 26.2.23,
+     * absolute error below 4.5e-4).
+     *
+     * @param p The probability, in (0, 1).
+     * @return The value below which a standard normal variable falls with probability p.
+     */
+    private static double normalQuantile(double p) {
+        double q = Math.min(p, 1 - p);
+        double t = Math.sqrt(-2 * Math.log(q));
+        double x = t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+        return p < 0.5 ? -x : x;
+    }
+}
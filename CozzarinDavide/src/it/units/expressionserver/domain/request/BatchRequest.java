@@ -0,0 +1,83 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class BatchRequest implements Request {
+    private static final String ITEM_SEPARATOR = "|";
+
+    private final List<ComputationRequest> requests;
+    private final List<String> parsingErrors;
+
+    /**
+     * Constructs a new BatchRequest instance.
+     * The two lists are aligned: for each item either the request or its parsing error is not null.
+     *
+     * @param requests      The computation requests of the batch, null for the items that could not be parsed.
+     * @param parsingErrors The parsing errors of the batch, null for the items that were parsed.
+     */
+    public BatchRequest(List<ComputationRequest> requests, List<String> parsingErrors) {
+        this.requests = requests;
+        this.parsingErrors = parsingErrors;
+    }
+
+    public List<ComputationRequest> getRequests() {
+        return this.requests;
+    }
+
+    /**
+     * Processes all the items of the batch in parallel on the batch executor of the server, on behalf of the connection served by the current thread, and returns a single response whose result
+     * holds the item results in request order, separated by "|". A failed item is reported as "ERR: message"
+     * in its own slot without affecting the others.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the batch processing.
+     * @return The response to the batch request.
+     * @throws ProcessException If there is an error during the processing of the batch request.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        Thread owner = Thread.currentThread();
+        List<Future<String>> items = new ArrayList<>(requests.size());
+        for (int index = 0; index < requests.size(); index++) {
+            int itemIndex = index;
+            items.add(server.getBatchExecutorService().submit(() -> computeItem(server, owner, itemIndex)));
+        }
+        StringJoiner results = new StringJoiner(ITEM_SEPARATOR);
+        try {
+            for (Future<String> item : items) {
+                try {
+                    results.add(item.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    results.add("ERR: " + (cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while waiting for the batch items", e);
+        } finally {
+            items.forEach(item -> item.cancel(true));
+        }
+        return new OkResponse(results.toString(), System.nanoTime() - startTime, server.getServerStats());
+    }
+
+    private String computeItem(Server server, Object owner, int index) {
+        if (parsingErrors.get(index) != null) {
+            return "ERR: " + parsingErrors.get(index);
+        }
+        try {
+            return requests.get(index).compute(server, owner);
+        } catch (Exception e) {
+            return "ERR: " + e.getMessage();
+        }
+    }
+}
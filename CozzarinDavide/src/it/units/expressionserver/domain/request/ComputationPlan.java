@@ -0,0 +1,155 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.domain.Expression;
+import it.units.expressionserver.domain.IntervalAnalysis;
+import it.units.expressionserver.domain.VariableValues;
+import it.units.expressionserver.exceptions.VariableValuesException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The plan of a GRID computation request: an equivalent request over a smaller tuple space, built symbolically
+ * from the expressions before any of them is evaluated.
+ * The variables no expression refers to only repeat each tuple as many times as their values, which changes
+ * neither the minimum, the maximum, the average nor the standard deviation, and multiplies the sum: they are dropped,
+ * and the number of repetitions is kept as the multiplicity of the plan.
+ * For MIN and MAX, a variable every expression is monotone in is reduced to the endpoints of its range,
+ * provided that the interval analysis proves the expressions can evaluate neither to NaN nor to an infinity.
+ * Requests the plan cannot shrink are planned as themselves, and invalid requests are left to fail as usual.
+ */
+public class ComputationPlan {
+    private final ComputationRequest request;
+    private final long multiplicity;
+    private final List<String> optimizations;
+
+    private ComputationPlan(ComputationRequest request, long multiplicity, List<String> optimizations) {
+        this.request = request;
+        this.multiplicity = multiplicity;
+        this.optimizations = optimizations;
+    }
+
+    /**
+     * Plans a computation request.
+     *
+     * @param request The computation request.
+     * @return The plan of the request.
+     */
+    public static ComputationPlan of(ComputationRequest request) {
+        String[] kind = request.getComputationKind().split("_");
+        if (!kind[1].equals("GRID") || !List.of("MIN", "MAX", "AVG", "SUM", "STDDEV").contains(kind[0])) {
+            return new ComputationPlan(request, 1, List.of());
+        }
+
+        Map<String, VariableValues> variableValuesMap = new LinkedHashMap<>();
+        for (VariableValues variableValues : request.getVariableValuesList()) {
+            variableValuesMap.put(variableValues.getVariableName(), variableValues);
+        }
+        Map<String, double[]> bounds = new HashMap<>();
+        Map<String, Long> valueCounts = new HashMap<>();
+        for (VariableValues variableValues : variableValuesMap.values()) {
+            double[] range = {Double.NaN, Double.NaN};
+            long[] count = new long[1];
+            try {
+                variableValues.forEachValue(value -> {
+                    if (count[0]++ == 0) {
+                        range[0] = value;
+                    }
+                    range[1] = value;
+                });
+            } catch (VariableValuesException e) {
+                return new ComputationPlan(request, 1, List.of());
+            }
+            if (count[0] == 0) {
+                return new ComputationPlan(request, 1, List.of());
+            }
+            bounds.put(variableValues.getVariableName(), range);
+            valueCounts.put(variableValues.getVariableName(), count[0]);
+        }
+
+        Set<String> referencedVariables = new HashSet<>();
+        for (Expression expression : request.getExpressions()) {
+            referencedVariables.addAll(expression.getVariableNames());
+        }
+        List<String> optimizations = new ArrayList<>();
+        List<VariableValues> plannedVariableValues = new ArrayList<>();
+        List<String> prunedVariables = new ArrayList<>();
+        long multiplicity = 1;
+        IntervalAnalysis intervalAnalysis = new IntervalAnalysis(bounds);
+        for (VariableValues variableValues : variableValuesMap.values()) {
+            String name = variableValues.getVariableName();
+            if (!referencedVariables.contains(name)) {
+                prunedVariables.add(name);
+                multiplicity = Math.multiplyExact(multiplicity, valueCounts.get(name));
+            } else if ((kind[0].equals("MIN") || kind[0].equals("MAX")) && valueCounts.get(name) > 2
+                    && isMonotone(intervalAnalysis, request.getExpressions(), name)) {
+                VariableValues endpoints = toEndpoints(variableValues, bounds.get(name));
+                plannedVariableValues.add(endpoints == null ? variableValues : endpoints);
+                if (endpoints != null) {
+                    optimizations.add("endpoints(" + name + ")");
+                }
+            } else {
+                plannedVariableValues.add(variableValues);
+            }
+        }
+        if (!prunedVariables.isEmpty()) {
+            optimizations.add(0, "pruned(" + String.join(",", prunedVariables) + ")");
+        }
+        if (optimizations.isEmpty()) {
+            return new ComputationPlan(request, 1, List.of());
+        }
+        return new ComputationPlan(new ComputationRequest(request.getComputationKind(), plannedVariableValues, request.getExpressions()),
+                multiplicity, optimizations);
+    }
+
+    private static boolean isMonotone(IntervalAnalysis intervalAnalysis, List<Expression> expressions, String variable) {
+        for (Expression expression : expressions) {
+            IntervalAnalysis.Monotonicity monotonicity = intervalAnalysis.monotonicity(expression, variable);
+            if (monotonicity == null || monotonicity == IntervalAnalysis.Monotonicity.UNKNOWN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the range holding only the first and the last value of the given range,
+     * or returns null if such a range does not generate exactly those two values.
+     */
+    private static VariableValues toEndpoints(VariableValues variableValues, double[] range) {
+        VariableValues endpoints = new VariableValues(variableValues.getVariableName(), range[0], range[1] - range[0], range[1]);
+        List<Double> values = new ArrayList<>();
+        try {
+            endpoints.forEachValue(values::add);
+        } catch (VariableValuesException e) {
+            return null;
+        }
+        return values.equals(List.of(range[0], range[1])) ? endpoints : null;
+    }
+
+    /**
+     * @return The request to evaluate in place of the planned one.
+     */
+    public ComputationRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return The number of times each tuple of the planned request stands for a tuple of the original one.
+     */
+    public long getMultiplicity() {
+        return multiplicity;
+    }
+
+    /**
+     * @return The descriptions of the optimizations applied by the plan.
+     */
+    public List<String> getOptimizations() {
+        return optimizations;
+    }
+}
@@ -0,0 +1,69 @@
+package it.units.expressionserver.domain.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Breakdown of where the time of a computation request went, collected by ComputationRequest
+ * when the request is prefixed with PROFILE.
+ */
+public class ComputationProfile {
+    private final long parseTime;
+    private long rangeGenerationTime;
+    private long evaluationTime;
+    private long tuples;
+    private List<Integer> expressionNodes = List.of();
+    private String engine = "none";
+    private final List<String> optimizations = new ArrayList<>();
+
+    /**
+     * Constructs a new ComputationProfile instance.
+     *
+     * @param parseTime The time spent parsing the request, in nanoseconds.
+     */
+    public ComputationProfile(long parseTime) {
+        this.parseTime = parseTime;
+    }
+
+    public void setRangeGenerationTime(long rangeGenerationTime) {
+        this.rangeGenerationTime = rangeGenerationTime;
+    }
+
+    public void setEvaluationTime(long evaluationTime) {
+        this.evaluationTime = evaluationTime;
+    }
+
+    public void setTuples(long tuples) {
+        this.tuples = tuples;
+    }
+
+    public void setExpressionNodes(List<Integer> expressionNodes) {
+        this.expressionNodes = expressionNodes;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Records an optimization applied to the computation.
+     *
+     * @param optimization The description of the optimization.
+     */
+    public void addOptimization(String optimization) {
+        optimizations.add(optimization);
+    }
+
+    /**
+     * Formats the profile as "parse=...;ranges=...;tuples=...;nodes=...;evaluation=...;engine=...;optimizations=...",
+     * with the times in seconds.
+     *
+     * @return The formatted profile.
+     */
+    public String format() {
+        return String.format(Locale.US, "parse=%.6f;ranges=%.6f;tuples=%d;nodes=%s;evaluation=%.6f;engine=%s;optimizations=%s",
+                parseTime / 1e9, rangeGenerationTime / 1e9, tuples, expressionNodes, evaluationTime / 1e9, engine,
+                optimizations.isEmpty() ? "none" : String.join(",", optimizations));
+    }
+}
@@ -1,6 +1,9 @@
 package it.units.expressionserver.domain.request;
 
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.domain.ColumnAllocator;
 import it.units.expressionserver.domain.Expression;
+import it.units.expressionserver.domain.TupleSpace;
 import it.units.expressionserver.domain.VariableValues;
 import it.units.expressionserver.exceptions.InvalidComputationKindException;
 import it.units.expressionserver.exceptions.ProcessException;
@@ -8,11 +11,18 @@ import it.units.expressionserver.exceptions.VariableValuesException;
 import it.units.expressionserver.domain.response.OkResponse;
 import it.units.expressionserver.domain.response.Response;
 import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.ComputationScheduler;
+import it.units.expressionserver.server.components.ResultStore;
+import it.units.expressionserver.server.components.ShardCoordinator;
 
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
 
 
 public class ComputationRequest implements Request {
@@ -55,133 +65,367 @@ public class ComputationRequest implements Request {
      */
     @Override
     public Response process(Server server, long startTime) throws ProcessException {
+        String formattedComputationResult = compute(server);
+        return new OkResponse(formattedComputationResult, System.nanoTime() - startTime, server.getServerStats());
+    }
 
-        HashMap<String, List<Double>> variableValuesMap = createVariableValueMappings(this.getVariableValuesList());
-        List<List<Double>> variableValuesList = new ArrayList<>(variableValuesMap.values());
-        List<List<Double>> tuples = switch (this.getComputationKind().split("_")[1]) {
-            case "GRID" -> new ArrayList<>(getCartesianProduct(variableValuesList));
-            case "LIST" -> new ArrayList<>(getElementWiseMerge(variableValuesList));
-            default -> throw new InvalidComputationKindException("Invalid computation kind");
-        };
+    /**
+     * Computes the result of the computation request, without recording any server statistic.
+     * The computation is scheduled on behalf of the connection served by the current thread.
+     *
+     * @param server The server instance.
+     * @return The computation result, formatted with six decimal digits.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    public String compute(Server server) throws ProcessException {
+        return compute(server, Thread.currentThread());
+    }
 
-        double computationResult;
-        if (this.getComputationKind().startsWith("COUNT")) {
-            computationResult = tuples.size();
-        } else {
-            List<Expression> expressions = this.getExpressions();
-            List<Double> results = new ArrayList<>();
-            for (List<Double> tuple : tuples) {
-                for (Expression expression : expressions) {
-                    HashMap<String, Double> variableValuesForExpression = new HashMap<>();
-                    int i = 0;
-                    for (String variableName : variableValuesMap.keySet()) {
-                        variableValuesForExpression.put(variableName, tuple.get(i));
-                        i++;
-                    }
-                    results.add(expression.evaluate(variableValuesForExpression));
+    /**
+     * Computes the result of the computation request, without recording any server statistic.
+     * When the server has a result store, the result is looked up there first and stored there once computed.
+     *
+     * @param server The server instance.
+     * @param owner  The connection the computation is scheduled on behalf of.
+     * @return The computation result, formatted with six decimal digits.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    public String compute(Server server, Object owner) throws ProcessException {
+        return compute(server, owner, null);
+    }
+
+    /**
+     * Computes the result of the computation request, without recording any server statistic.
+     * When the server has a result store, the result is looked up there first and stored there once computed.
+     * When an identical request is already being computed, its result is awaited and shared instead of computing it again.
+     *
+     * @param server  The server instance.
+     * @param owner   The connection the computation is scheduled on behalf of.
+     * @param profile The profile filled with the breakdown of the computation, or null if it is not profiled.
+     * @return The computation result, formatted with six decimal digits.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    public String compute(Server server, Object owner, ComputationProfile profile) throws ProcessException {
+        ResultStore resultStore = server.getResultStore();
+        String canonicalRequest = toCanonicalString();
+        if (resultStore != null) {
+            String storedResult = resultStore.get(canonicalRequest);
+            if (storedResult != null) {
+                if (profile != null) {
+                    profile.setEngine("result-store");
                 }
+                return storedResult;
             }
-
-            computationResult = switch (this.getComputationKind().split("_")[0]) {
-                case "MIN" -> results.stream().mapToDouble(v -> v).min().orElseThrow(() -> new ProcessException("Failed to compute min"));
-                case "MAX" -> results.stream().mapToDouble(v -> v).max().orElseThrow(() -> new ProcessException("Failed to compute max"));
-                case "AVG" -> results.stream().mapToDouble(v -> v).average().orElseThrow(() -> new ProcessException("Failed to compute avg"));
-                default -> throw new InvalidComputationKindException("Invalid computation kind");
-            };
         }
+        boolean[] computed = {false};
+        String result = server.getSingleFlight().compute(canonicalRequest, () -> {
+            computed[0] = true;
+            String evaluated = evaluate(server, owner, profile);
+            if (resultStore != null) {
+                resultStore.put(canonicalRequest, evaluated);
+            }
+            return evaluated;
+        });
+        if (!computed[0] && profile != null) {
+            profile.setEngine("single-flight");
+        }
+        return result;
+    }
 
-        String formattedComputationResult = String.format(Locale.US, "%.6f", computationResult);
+    /**
+     * Describes how the computation request would be executed, without executing it:
+     * the tuple space of its plan, the size of the expressions, the estimated cost in node evaluations,
+     * the engine and the optimizations of the plan.
+     *
+     * @param server The server instance.
+     * @return The plan, formatted as "plan=MODE(variable:values,...);tuples=...;nodes=[...];cost=...;engine=...;optimizations=...;cached=...".
+     * @throws ProcessException If the computation kind is invalid.
+     */
+    public String explain(Server server) throws ProcessException {
+        ComputationPlan plan = ComputationPlan.of(this);
+        ComputationRequest plannedRequest = plan.getRequest();
+        LinkedHashMap<String, Long> valueCounts = plannedRequest.countValuesByVariable();
+        String mode = this.getComputationKind().split("_")[1];
+        long tuples = plannedRequest.countTuples();
+        List<Integer> expressionNodes = expressions.stream().map(Expression::countNodes).toList();
+        long cost = getOperation().equals("COUNT") ? 0 : tuples * expressionNodes.stream().mapToLong(nodes -> nodes).sum();
+        ResultStore resultStore = server.getResultStore();
+        boolean cached = resultStore != null && resultStore.get(toCanonicalString()) != null;
 
-        return new OkResponse(formattedComputationResult, System.nanoTime() - startTime, server.getServerStats());
+        return "plan=" + mode + valueCounts.entrySet().stream()
+                    .map(entry -> entry.getKey() + ":" + entry.getValue())
+                    .collect(Collectors.joining(",", "(", ")"))
+                + ";tuples=" + tuples
+                + ";nodes=" + expressionNodes
+                + ";cost=" + cost
+                + ";engine=" + plannedRequest.describeEngine(server, tuples)
+                + ";optimizations=" + (plan.getOptimizations().isEmpty() ? "none" : String.join(",", plan.getOptimizations()))
+                + ";cached=" + (cached ? "yes" : "no");
     }
 
     /**
-     * Creates a mapping between variables and their values.
+     * Counts the tuples of the computation request without generating the variable values.
      *
-     * @param variableValuesList The list of variable values.
-     * @return A map containing variable names as keys and lists of corresponding values.
-     * @throws VariableValuesException If there is an error in generating variable values.
+     * @return The number of tuples, estimated as VariableValues.countValues does.
+     * @throws ProcessException If the computation kind is invalid.
      */
-    public HashMap<String, List<Double>> createVariableValueMappings(List<VariableValues> variableValuesList) throws VariableValuesException {
-        HashMap<String, List<Double>> variableValuesMap = new HashMap<>();
+    public long countTuples() throws ProcessException {
+        List<Long> valueCounts = new ArrayList<>(countValuesByVariable().values());
+        return switch (this.getComputationKind().split("_")[1]) {
+            case "GRID" -> valueCounts.stream().reduce(1L, Math::multiplyExact);
+            case "LIST" -> {
+                if (valueCounts.stream().distinct().count() > 1) {
+                    throw new IllegalArgumentException("All non-empty variable ranges must have the same length for element-wise merging. Check the length of the lists.");
+                }
+                yield valueCounts.get(0);
+            }
+            default -> throw new InvalidComputationKindException("Invalid computation kind");
+        };
+    }
 
+    /**
+     * Counts the values of each variable, a variable given more than once taking its last values
+     * in the position of its first occurrence, as in the tuple space built by createTupleSpace.
+     */
+    private LinkedHashMap<String, Long> countValuesByVariable() {
+        LinkedHashMap<String, Long> valueCounts = new LinkedHashMap<>();
         for (VariableValues variableValues : variableValuesList) {
-            try {
-                List<Double> values = variableValues.generateValues();
-                variableValuesMap.put(variableValues.getVariableName(), values);
-            } catch (VariableValuesException e) {
-                throw new VariableValuesException("Error generating variable values for " + variableValues.getVariableName(), e);
+            valueCounts.put(variableValues.getVariableName(), variableValues.countValues());
+        }
+        return valueCounts;
+    }
+
+    private String describeEngine(Server server, long tuples) {
+        if (getOperation().equals("COUNT")) {
+            return "count";
+        }
+        ShardCoordinator shardCoordinator = server.getShardCoordinator();
+        if (shardCoordinator != null && !tracksQuantiles() && shardCoordinator.shouldDistribute(tuples)) {
+            return "shards(" + shardCoordinator.countShards(tuples) + ")";
+        }
+        long chunks = server.getComputationScheduler().countChunks(tuples, expressions.size());
+        return chunks <= 1 ? "inline" : "scheduler(" + chunks + " chunks)";
+    }
+
+    /**
+     * Evaluates the computation request.
+     * The request is planned first, and its plan evaluated in its place.
+     * When the server coordinates a set of peers, large computations are split in shards evaluated by the peers,
+     * otherwise they are split in chunks evaluated by the server's ComputationScheduler.
+     *
+     * @param server  The server instance.
+     * @param owner   The connection the computation is scheduled on behalf of.
+     * @param profile The profile filled with the breakdown of the computation, or null if it is not profiled.
+     * @return The computation result, formatted with six decimal digits.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    private String evaluate(Server server, Object owner, ComputationProfile profile) throws ProcessException {
+        long rangeGenerationStart = System.nanoTime();
+        ComputationPlan plan = ComputationPlan.of(this);
+        if (profile != null) {
+            plan.getOptimizations().forEach(profile::addOptimization);
+        }
+        ComputationRequest plannedRequest = plan.getRequest();
+        try (TupleSpace tupleSpace = plannedRequest.createTupleSpace(server.getColumnAllocator())) {
+            return plannedRequest.evaluate(server, owner, profile, tupleSpace, rangeGenerationStart, plan.getMultiplicity());
+        }
+    }
+
+    private String evaluate(Server server, Object owner, ComputationProfile profile, TupleSpace tupleSpace, long rangeGenerationStart, long multiplicity) throws ProcessException {
+        long evaluationStart = System.nanoTime();
+        if (profile != null) {
+            profile.setRangeGenerationTime(evaluationStart - rangeGenerationStart);
+            profile.setTuples(tupleSpace.size());
+            profile.setExpressionNodes(expressions.stream().map(Expression::countNodes).toList());
+            profile.setEngine(describeEngine(server, tupleSpace.size()));
+        }
+
+        double computationResult;
+        if (this.getComputationKind().startsWith("COUNT")) {
+            computationResult = tupleSpace.size();
+        } else {
+            ShardCoordinator shardCoordinator = server.getShardCoordinator();
+            Aggregate aggregate;
+            if (shardCoordinator != null && !tracksQuantiles() && shardCoordinator.shouldDistribute(tupleSpace.size())) {
+                aggregate = shardCoordinator.evaluate(this, tupleSpace, server.getComputationScheduler(), owner);
+            } else {
+                aggregate = evaluate(server.getComputationScheduler(), owner, tupleSpace, 0, tupleSpace.size());
             }
+            if (profile != null) {
+                profile.setEvaluationTime(System.nanoTime() - evaluationStart);
+            }
+
+            computationResult = summarize(aggregate, multiplicity);
         }
 
-        return variableValuesMap;
+        return String.format(Locale.US, "%.6f", computationResult);
     }
 
     /**
-     * Generates the Cartesian product of the input lists of numbers.
+     * Extracts the result of the computation kind from the aggregate of the values of the expressions.
      *
-     * @param lists The input lists of numbers.
-     * @return The Cartesian product as a list of lists of numbers.
+     * @param aggregate The aggregate of the values of the expressions.
+     * @param sumScale  The factor the sum is multiplied by, as the number of tuples each evaluated tuple stands for.
+     * @return The result of the computation.
+     * @throws ProcessException If the aggregate is empty and the computation kind needs at least one value,
+     *                          or if the computation kind is COUNT, which is not computed from an aggregate.
      */
-    private List<List<Double>> getCartesianProduct(List<List<Double>> lists) {
-        List<List<Double>> resultLists = new ArrayList<>();
-        cartesianProduct(0, new ArrayList<>(), lists, resultLists);
-        return resultLists;
+    public double summarize(Aggregate aggregate, double sumScale) throws ProcessException {
+        return switch (getOperation()) {
+            case "MIN" -> requireResults(aggregate, "Failed to compute min").getMin();
+            case "MAX" -> requireResults(aggregate, "Failed to compute max").getMax();
+            case "AVG" -> requireResults(aggregate, "Failed to compute avg").getAverage();
+            case "SUM" -> aggregate.getSum() * sumScale;
+            case "STDDEV" -> requireResults(aggregate, "Failed to compute stddev").getStandardDeviation();
+            case "MEDIAN" -> requireResults(aggregate, "Failed to compute median").getQuantile(0.5);
+            case "P95" -> requireResults(aggregate, "Failed to compute p95").getQuantile(0.95);
+            default -> throw new InvalidComputationKindException("Invalid computation kind");
+        };
     }
 
     /**
-     * Support function for generating the Cartesian product recursively.
+     * Evaluates all the expressions on the tuples whose index lies in [from, to), chunk by chunk on the given scheduler.
      *
-     * @param index       The current index in the lists.
-     * @param current     The current list of numbers.
-     * @param lists       The input lists of numbers.
-     * @param resultLists The resulting list of lists of numbers.
-     */
-    private void cartesianProduct(int index, List<Double> current, List<List<Double>> lists, List<List<Double>> resultLists) {
-        if (index == lists.size()) {
-            resultLists.add(new ArrayList<>(current));
-            return;
-        }
+     * @param computationScheduler The scheduler of the chunks.
+     * @param owner                The connection the computation is scheduled on behalf of.
+     * @param tupleSpace           The tuple space of the request.
+     * @param from                 The index of the first tuple, inclusive.
+     * @param to                   The index of the last tuple, exclusive.
+     * @return The aggregate of the values of the expressions on the given tuples.
+     * @throws ProcessException If the computation is interrupted.
+     */
+    public Aggregate evaluate(ComputationScheduler computationScheduler, Object owner, TupleSpace tupleSpace, long from, long to) throws ProcessException {
+        List<ToDoubleFunction<double[]>> compiledExpressions = compileExpressions(tupleSpace);
+        return computationScheduler.evaluate(owner, from, to, expressions.size(),
+                (chunkFrom, chunkTo) -> evaluate(compiledExpressions, tupleSpace, chunkFrom, chunkTo),
+                createAggregate());
+    }
 
-        for (Double num : lists.get(index)) {
-            current.add(num);
-            cartesianProduct(index + 1, current, lists, resultLists);
-            current.remove(current.size() - 1);
-        }
+    /**
+     * Evaluates all the expressions on the tuples whose index lies in [from, to).
+     *
+     * @param tupleSpace The tuple space of the request.
+     * @param from       The index of the first tuple, inclusive.
+     * @param to         The index of the last tuple, exclusive.
+     * @return The aggregate of the values of the expressions on the given tuples.
+     */
+    public Aggregate evaluate(TupleSpace tupleSpace, long from, long to) {
+        return evaluate(compileExpressions(tupleSpace), tupleSpace, from, to);
     }
 
     /**
-     * Combines elements from multiple lists into a list of tuples.
+     * Evaluates all the expressions on the tuples at the positions in [from, to) of a permutation of the tuple space,
+     * chunk by chunk on the given scheduler. Evaluating a permutation in consecutive ranges of positions visits
+     * tuples spread over the whole space from the first range on.
      *
-     * @param lists The input lists of numbers.
-     * @return The merged list of tuples.
-     * @throws IllegalArgumentException If variable ranges have different lengths for element-wise merging.
+     * @param computationScheduler The scheduler of the chunks.
+     * @param owner                The connection the computation is scheduled on behalf of.
+     * @param tupleSpace           The tuple space of the request.
+     * @param multiplier           The multiplier of the permutation, coprime with the size of the space.
+     * @param offset               The offset of the permutation.
+     * @param from                 The first position, inclusive.
+     * @param to                   The last position, exclusive.
+     * @return The aggregate of the values of the expressions on the given tuples.
+     * @throws ProcessException If the computation is interrupted.
+     * @see TupleSpace#forEachPermuted(long, long, long, long, java.util.function.Consumer)
      */
-    private List<List<Double>> getElementWiseMerge(List<List<Double>> lists) {
-        if (!lists.stream().allMatch(list -> list.size() == lists.get(0).size())) {
-            throw new IllegalArgumentException("All non-empty variable ranges must have the same length for element-wise merging. Check the length of the lists.");
+    public Aggregate evaluatePermuted(ComputationScheduler computationScheduler, Object owner, TupleSpace tupleSpace, long multiplier, long offset, long from, long to) throws ProcessException {
+        List<ToDoubleFunction<double[]>> compiledExpressions = compileExpressions(tupleSpace);
+        return computationScheduler.evaluate(owner, from, to, expressions.size(), (chunkFrom, chunkTo) -> {
+            Aggregate aggregate = createAggregate();
+            tupleSpace.forEachPermuted(chunkFrom, chunkTo, multiplier, offset, tuple -> {
+                for (ToDoubleFunction<double[]> compiledExpression : compiledExpressions) {
+                    aggregate.accept(compiledExpression.applyAsDouble(tuple));
+                }
+            });
+            return aggregate;
+        }, createAggregate());
+    }
+
+    private List<ToDoubleFunction<double[]>> compileExpressions(TupleSpace tupleSpace) {
+        List<ToDoubleFunction<double[]>> compiledExpressions = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions) {
+            compiledExpressions.add(expression.compile(tupleSpace.getVariableNames()));
         }
+        return compiledExpressions;
+    }
+
+    private Aggregate evaluate(List<ToDoubleFunction<double[]>> compiledExpressions, TupleSpace tupleSpace, long from, long to) {
+        Aggregate aggregate = createAggregate();
+        tupleSpace.forEach(from, to, tuple -> {
+            for (ToDoubleFunction<double[]> compiledExpression : compiledExpressions) {
+                aggregate.accept(compiledExpression.applyAsDouble(tuple));
+            }
+        });
+        return aggregate;
+    }
 
-        int numRows = lists.size();
-        int numCols = lists.get(0).size();
-        List<List<Double>> result = new ArrayList<>(numCols);
+    /**
+     * Creates an empty aggregate tracking what the computation kind needs.
+     *
+     * @return The empty aggregate.
+     */
+    public Aggregate createAggregate() {
+        return new Aggregate(getOperation().equals("STDDEV"), tracksQuantiles());
+    }
 
-        for (int i = 0; i < numCols; i++) {
-            List<Double> mergedColumn = new ArrayList<>(numRows);
+    private String getOperation() {
+        return this.getComputationKind().split("_")[0];
+    }
 
-            for (List<Double> currentRow : lists) {
-                Double value = currentRow.get(i);
+    private boolean tracksQuantiles() {
+        return getOperation().equals("MEDIAN") || getOperation().equals("P95");
+    }
 
-                if (value == null) {
-                    value = 0.0;
-                }
+    /**
+     * Creates the tuple space of the request from its variable values and computation kind.
+     * The tuple space holds columns allocated by the given allocator, so it must be closed once the request is completed.
+     *
+     * @param columnAllocator The allocator of the columns of variable values.
+     * @return The tuple space on which the expressions are evaluated.
+     * @throws ProcessException If the computation kind is invalid.
+     */
+    public TupleSpace createTupleSpace(ColumnAllocator columnAllocator) throws ProcessException {
+        TupleSpace.Mode mode = switch (this.getComputationKind().split("_")[1]) {
+            case "GRID" -> TupleSpace.Mode.GRID;
+            case "LIST" -> TupleSpace.Mode.LIST;
+            default -> throw new InvalidComputationKindException("Invalid computation kind");
+        };
+        HashMap<String, VariableValues> variableValuesMap = new LinkedHashMap<>();
+        for (VariableValues variableValues : this.getVariableValuesList()) {
+            variableValuesMap.put(variableValues.getVariableName(), variableValues);
+        }
 
-                mergedColumn.add(value);
+        List<DoubleBuffer> columns = new ArrayList<>();
+        for (VariableValues variableValues : variableValuesMap.values()) {
+            try {
+                columns.add(columnAllocator.allocate(variableValues));
+            } catch (VariableValuesException e) {
+                columns.forEach(columnAllocator::release);
+                throw new VariableValuesException("Error generating variable values for " + variableValues.getVariableName(), e);
             }
-
-            result.add(mergedColumn);
         }
+        return new TupleSpace(mode, new ArrayList<>(variableValuesMap.keySet()), columns, columnAllocator);
+    }
 
-        return result;
+    /**
+     * Returns the canonical textual form of the request, which the RequestParser parses back into an equivalent request.
+     *
+     * @return The canonical form of the request.
+     */
+    public String toCanonicalString() {
+        return computationKind + ";"
+                + variableValuesList.stream()
+                    .map(v -> v.getVariableName() + ":" + v.getLower() + ":" + v.getStep() + ":" + v.getUpper())
+                    .collect(Collectors.joining(","))
+                + ";"
+                + expressions.stream().map(Expression::toString).collect(Collectors.joining(";"));
+    }
+
+    private static Aggregate requireResults(Aggregate aggregate, String errorMessage) throws ProcessException {
+        if (aggregate.getCount() == 0) {
+            throw new ProcessException(errorMessage);
+        }
+        return aggregate;
     }
 }
@@ -0,0 +1,40 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+/**
+ * A computation request prefixed with EXPLAIN: it is not executed, and its response describes
+ * how it would be executed and how much it would cost.
+ */
+public class ExplainRequest implements Request {
+    private final ComputationRequest computationRequest;
+
+    /**
+     * Constructs a new ExplainRequest instance.
+     *
+     * @param computationRequest The explained computation request.
+     */
+    public ExplainRequest(ComputationRequest computationRequest) {
+        this.computationRequest = computationRequest;
+    }
+
+    public ComputationRequest getComputationRequest() {
+        return this.computationRequest;
+    }
+
+    /**
+     * Plans the explained computation request and returns its plan.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @return The response holding the plan and the cost estimate.
+     * @throws ProcessException If the computation request cannot be planned.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        return new OkResponse(computationRequest.explain(server), System.nanoTime() - startTime, server.getServerStats());
+    }
+}
@@ -0,0 +1,36 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+/**
+ * A PREPARE command, whose variable values or expressions have been parsed and registered by the RequestParser
+ * under a handle; computation requests can then refer to them as "@handle" instead of sending them again.
+ */
+public class PrepareRequest implements Request {
+    private final String handle;
+
+    /**
+     * Constructs a new PrepareRequest instance.
+     *
+     * @param handle The handle of the prepared variable values or expressions, without the leading '@'.
+     */
+    public PrepareRequest(String handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns the handle of the prepared variable values or expressions.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @return The response holding the handle, with the leading '@'.
+     * @throws ProcessException Never, the command has been completed by the parser.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        return new OkResponse("@" + handle, System.nanoTime() - startTime, server.getServerStats());
+    }
+}
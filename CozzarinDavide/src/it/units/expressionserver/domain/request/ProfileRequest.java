@@ -0,0 +1,46 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.ProfileResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+/**
+ * A computation request prefixed with PROFILE: it is processed as usual, and its response
+ * is followed by the breakdown of where the time went.
+ */
+public class ProfileRequest implements Request {
+    private final ComputationRequest computationRequest;
+    private final long parseTime;
+
+    /**
+     * Constructs a new ProfileRequest instance.
+     *
+     * @param computationRequest The profiled computation request.
+     * @param parseTime          The time spent parsing the computation request, in nanoseconds.
+     */
+    public ProfileRequest(ComputationRequest computationRequest, long parseTime) {
+        this.computationRequest = computationRequest;
+        this.parseTime = parseTime;
+    }
+
+    public ComputationRequest getComputationRequest() {
+        return this.computationRequest;
+    }
+
+    /**
+     * Processes the profiled computation request and returns its response together with the profile.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @return The response to the request, followed by the profile.
+     * @throws ProcessException If there is an error during the processing of the computation request.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        ComputationProfile profile = new ComputationProfile(parseTime);
+        String result = computationRequest.compute(server, Thread.currentThread(), profile);
+        return new ProfileResponse(new OkResponse(result, System.nanoTime() - startTime, server.getServerStats()), profile);
+    }
+}
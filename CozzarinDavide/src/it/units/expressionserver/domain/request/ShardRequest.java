@@ -0,0 +1,65 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+
+/**
+ * Internal request sent by a coordinating server to its peers, of the form "SHARD;from;to;computationRequest".
+ * The peer evaluates the expressions of the computation request only on the tuples whose index lies in [from, to)
+ * and answers with the partial aggregate, which the coordinator merges.
+ */
+public class ShardRequest implements Request {
+    private final long from;
+    private final long to;
+    private final ComputationRequest computationRequest;
+
+    /**
+     * Constructs a new ShardRequest instance.
+     *
+     * @param from               The index of the first tuple of the shard, inclusive.
+     * @param to                 The index of the last tuple of the shard, exclusive.
+     * @param computationRequest The computation request the shard belongs to.
+     */
+    public ShardRequest(long from, long to, ComputationRequest computationRequest) {
+        this.from = from;
+        this.to = to;
+        this.computationRequest = computationRequest;
+    }
+
+    public ComputationRequest getComputationRequest() {
+        return this.computationRequest;
+    }
+
+    /**
+     * Evaluates the shard locally and returns its partial aggregate, encoded by Aggregate.encode.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the shard processing.
+     * @return The response holding the partial aggregate.
+     * @throws ProcessException If there is an error during the evaluation of the shard.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        Aggregate aggregate;
+        try (TupleSpace tupleSpace = computationRequest.createTupleSpace(server.getColumnAllocator())) {
+            aggregate = computationRequest.evaluate(server.getComputationScheduler(), Thread.currentThread(), tupleSpace, from, Math.min(to, tupleSpace.size()));
+        }
+        return new OkResponse(aggregate.encode(), System.nanoTime() - startTime, server.getServerStats());
+    }
+
+    /**
+     * Builds the raw line of a shard request.
+     *
+     * @param from                        The index of the first tuple of the shard, inclusive.
+     * @param to                          The index of the last tuple of the shard, exclusive.
+     * @param canonicalComputationRequest The canonical form of the computation request.
+     * @return The raw shard request.
+     */
+    public static String toRawRequest(long from, long to, String canonicalComputationRequest) {
+        return "SHARD;" + from + ";" + to + ";" + canonicalComputationRequest;
+    }
+}
@@ -0,0 +1,39 @@
+package it.units.expressionserver.domain.request;
+
+import java.io.IOException;
+
+/**
+ * The connection a StreamRequest sends its partial results to, and which tells it whether the client
+ * asked to stop the computation.
+ */
+public interface StreamChannel {
+    /**
+     * A channel discarding the partial results and never asking to stop.
+     */
+    StreamChannel NONE = new StreamChannel() {
+        @Override
+        public void emit(String line) {
+        }
+
+        @Override
+        public boolean stopRequested() {
+            return false;
+        }
+    };
+
+    /**
+     * Sends a line holding a partial result to the client right away.
+     *
+     * @param line The line to send.
+     * @throws IOException If the line cannot be sent.
+     */
+    void emit(String line) throws IOException;
+
+    /**
+     * Checks, without blocking, whether the client asked to stop the computation.
+     *
+     * @return Whether the computation has to stop.
+     * @throws IOException If the connection cannot be read.
+     */
+    boolean stopRequested() throws IOException;
+}
@@ -0,0 +1,153 @@
+package it.units.expressionserver.domain.request;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.domain.response.OkResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.ResultStore;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A computation request prefixed with STREAM: its tuples are evaluated in a random order, and every interval
+ * a line "PARTIAL;elapsed seconds;result so far;fraction of the tuples evaluated" is sent while the evaluation goes on,
+ * followed by the usual OK line. Since the order is a random permutation of the whole space, the partial results
+ * are computed on tuples spread over the whole space, and a partial sum is scaled up to the whole space.
+ * When the client sends STOP, the evaluation ends early and the OK line holds the result on the tuples evaluated so far.
+ */
+public class StreamRequest implements Request {
+    /**
+     * The interval between two partial results, when the request does not specify it.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    private static final long EVALUATIONS_PER_STEP = 1 << 20;
+
+    private final ComputationRequest computationRequest;
+    private final long intervalMillis;
+
+    /**
+     * Constructs a new StreamRequest instance.
+     *
+     * @param computationRequest The streamed computation request.
+     * @param intervalMillis     The interval between two partial results, in milliseconds.
+     */
+    public StreamRequest(ComputationRequest computationRequest, long intervalMillis) {
+        this.computationRequest = computationRequest;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public ComputationRequest getComputationRequest() {
+        return this.computationRequest;
+    }
+
+    /**
+     * Processes the streamed computation request without sending any partial result.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @return The response to the computation request.
+     * @throws ProcessException If there is an error during the computation.
+     */
+    @Override
+    public Response process(Server server, long startTime) throws ProcessException {
+        return process(server, startTime, StreamChannel.NONE);
+    }
+
+    /**
+     * Processes the streamed computation request, sending the partial results to the given channel.
+     * A result computed on all the tuples is stored in the result store of the server, if any, while a result
+     * of a stopped computation is not.
+     *
+     * @param server    The server instance.
+     * @param startTime The start time of the request processing.
+     * @param channel   The channel of the partial results and of the stop command.
+     * @return The response holding the final result.
+     * @throws ProcessException If there is an error during the computation or while sending the partial results.
+     */
+    public Response process(Server server, long startTime, StreamChannel channel) throws ProcessException {
+        if (computationRequest.getComputationKind().startsWith("COUNT")) {
+            return computationRequest.process(server, startTime);
+        }
+        ResultStore resultStore = server.getResultStore();
+        String canonicalRequest = computationRequest.toCanonicalString();
+        String storedResult = resultStore == null ? null : resultStore.get(canonicalRequest);
+        if (storedResult != null) {
+            return new OkResponse(storedResult, System.nanoTime() - startTime, server.getServerStats());
+        }
+
+        ComputationPlan plan = ComputationPlan.of(computationRequest);
+        ComputationRequest plannedRequest = plan.getRequest();
+        try (TupleSpace tupleSpace = plannedRequest.createTupleSpace(server.getColumnAllocator())) {
+            long size = tupleSpace.size();
+            SplittableRandom random = new SplittableRandom();
+            long multiplier = randomMultiplier(size, random);
+            long offset = size == 0 ? 0 : random.nextLong(size);
+            long step = Math.max(1, EVALUATIONS_PER_STEP / Math.max(1, plannedRequest.getExpressions().size()));
+            long intervalNanos = intervalMillis * 1_000_000;
+
+            Aggregate aggregate = plannedRequest.createAggregate();
+            long position = 0;
+            long nextPartial = System.nanoTime() + intervalNanos;
+            boolean stopped = false;
+            try {
+                while (position < size) {
+                    long to = Math.min(size, position + step);
+                    aggregate.merge(plannedRequest.evaluatePermuted(server.getComputationScheduler(), Thread.currentThread(),
+                            tupleSpace, multiplier, offset, position, to));
+                    position = to;
+                    if (position == size) {
+                        break;
+                    }
+                    if (channel.stopRequested()) {
+                        stopped = true;
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    if (now >= nextPartial && aggregate.getCount() > 0) {
+                        double partialResult = plannedRequest.summarize(aggregate, plan.getMultiplicity() * ((double) size / position));
+                        channel.emit(String.format(Locale.US, "PARTIAL;%.3f;%.6f;%.6f", (now - startTime) / 1e9, partialResult, (double) position / size));
+                        nextPartial = now + intervalNanos;
+                    }
+                }
+            } catch (IOException e) {
+                throw new ProcessException("Unable to send the partial results", e);
+            }
+
+            double scale = position == 0 ? 0 : plan.getMultiplicity() * ((double) size / position);
+            String result = String.format(Locale.US, "%.6f", plannedRequest.summarize(aggregate, scale));
+            if (!stopped && resultStore != null) {
+                resultStore.put(canonicalRequest, result);
+            }
+            return new OkResponse(result, System.nanoTime() - startTime, server.getServerStats());
+        }
+    }
+
+    /**
+     * Draws a multiplier coprime with the size of the space, away from both ends of the space
+     * so that consecutive positions land far apart.
+     */
+    private static long randomMultiplier(long size, SplittableRandom random) {
+        if (size < 4) {
+            return 1;
+        }
+        while (true) {
+            long multiplier = size / 4 + random.nextLong(size / 2);
+            if (gcd(multiplier, size) == 1) {
+                return multiplier;
+            }
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+}
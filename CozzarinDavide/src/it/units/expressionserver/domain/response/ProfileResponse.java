@@ -0,0 +1,29 @@
+package it.units.expressionserver.domain.response;
+
+import it.units.expressionserver.domain.request.ComputationProfile;
+
+public class ProfileResponse implements Response {
+    private final OkResponse okResponse;
+    private final ComputationProfile profile;
+
+    /**
+     * Constructs a new ProfileResponse instance.
+     *
+     * @param okResponse The response to the profiled request.
+     * @param profile    The profile of the request.
+     */
+    public ProfileResponse(OkResponse okResponse, ComputationProfile profile) {
+        this.okResponse = okResponse;
+        this.profile = profile;
+    }
+
+    /**
+     * Returns the string representation of the ProfileResponse, formatted as "OK;responseTime;result;profile".
+     *
+     * @return The formatted string representing the ProfileResponse.
+     */
+    @Override
+    public String printResponse() {
+        return okResponse.printResponse() + ";" + profile.format();
+    }
+}
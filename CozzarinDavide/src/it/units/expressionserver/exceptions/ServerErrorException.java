@@ -0,0 +1,7 @@
+package it.units.expressionserver.exceptions;
+
+public class ServerErrorException extends Exception {
+    public ServerErrorException(String message) {
+        super(message);
+    }
+}
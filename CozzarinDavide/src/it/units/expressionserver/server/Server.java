@@ -1,73 +1,255 @@
 package it.units.expressionserver.server;
 
+import it.units.expressionserver.domain.ColumnAllocator;
+import it.units.expressionserver.domain.Expression;
+import it.units.expressionserver.domain.VariableValues;
+import it.units.expressionserver.server.components.AsyncLogger;
+import it.units.expressionserver.server.components.BatchRunner;
 import it.units.expressionserver.server.components.ClientHandler;
+import it.units.expressionserver.server.components.ComputationScheduler;
+import it.units.expressionserver.server.components.PreparedHandles;
+import it.units.expressionserver.server.components.ResultStore;
 import it.units.expressionserver.server.components.ServerStats;
+import it.units.expressionserver.server.components.ShardCoordinator;
+import it.units.expressionserver.server.components.SingleFlight;
+import it.units.expressionserver.server.components.TrafficRecorder;
+import it.units.expressionserver.server.components.Warmup;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class Server {
     private final int port;
     private final ExecutorService executorService;
+    private final ExecutorService batchExecutorService;
     private final ServerStats serverStats;
+    private final ComputationScheduler computationScheduler;
+    private ColumnAllocator columnAllocator;
+    private final PreparedHandles<List<VariableValues>> globalVariableValuesHandles;
+    private final PreparedHandles<List<Expression>> globalExpressionsHandles;
+    private final SingleFlight singleFlight;
+    private ShardCoordinator shardCoordinator;
+    private ResultStore resultStore;
+    private TrafficRecorder trafficRecorder;
+    private Warmup warmup;
     private static final String QUIT_COMMAND = "BYE";
+    private static final String STOP_COMMAND = "STOP";
+    private static final String BATCH_COMMAND = "batch";
+    private static final String USAGE = "Usage: java -jar CozzarinDavide.jar <port> | batch <input file> <output file> [--order=input|tagged] [--batch-workers=threads] [--peers=host:port,...] [--shard-timeout=millis] [--store=directory] [--store-size=megabytes] [--capture=file] [--warmup=synthetic|capture file] [--offheap-threshold=values] [--log-level=debug|info|warn|error|off]";
+    private static final int DEFAULT_SHARD_TIMEOUT_MILLIS = 30_000;
+    private static final int DEFAULT_STORE_SIZE_MEGABYTES = 64;
+    private static final long DEFAULT_OFFHEAP_THRESHOLD = 1_000_000;
 
     /**
      * Constructor for the Server. It initializes the server port,
-     * creates the ExecutorService for handling connections and computations,
+     * creates the ExecutorService for handling connections, the ExecutorService bounded to the processors
+     * computing the items of the batch requests, the ComputationScheduler sharing
+     * the processors fairly among the computations of the connections, the ColumnAllocator of the variable values,
+     * the variable values and expressions prepared globally, the SingleFlight coalescing identical computations,
      * and instantiates the ServerStats for collecting statistics.
      */
     public Server(int port) {
+        this(port, Executors.newCachedThreadPool(), newBatchExecutorService(Runtime.getRuntime().availableProcessors()),
+                new ComputationScheduler(Runtime.getRuntime().availableProcessors()), new ColumnAllocator(DEFAULT_OFFHEAP_THRESHOLD));
+    }
+
+    private Server(int port, ExecutorService executorService, ExecutorService batchExecutorService,
+                   ComputationScheduler computationScheduler, ColumnAllocator columnAllocator) {
         this.port = port;
-        this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.executorService = executorService;
+        this.batchExecutorService = batchExecutorService;
         this.serverStats = new ServerStats();
+        this.computationScheduler = computationScheduler;
+        this.columnAllocator = columnAllocator;
+        this.globalVariableValuesHandles = new PreparedHandles<>("gv", PreparedHandles.GLOBAL_CAPACITY);
+        this.globalExpressionsHandles = new PreparedHandles<>("ge", PreparedHandles.GLOBAL_CAPACITY);
+        this.singleFlight = new SingleFlight();
     }
 
     /**
-     * The main method for the Server class. It parses the command line arguments for the server port number,
-     * instantiates the Server, and runs it.
+     * The main method for the Server class. It parses the command line arguments for the server port number
+     * and the optional settings, instantiates the Server, and runs it.
+     * With "--peers" the server acts as a coordinator, splitting large computations among the given peer servers.
+     * With "--store" the computation results are persisted in the given directory and survive restarts.
+     * With "--capture" the raw requests are recorded in the given file, to be replayed by the TrafficReplayer tool.
+     * With "--warmup" a synthetic or captured workload is run before accepting connections, to warm up the JIT.
+     * With "--offheap-threshold" the variable ranges of at least the given number of values are stored off the heap.
+     * With "--log-level" the messages less severe than the given level are not logged.
+     * With "batch" instead of the port number, no connection is accepted: the request lines of the input file are
+     * processed in parallel by a BatchRunner and their responses are written to the output file, in the order
+     * of the input lines or, with "--order=tagged", as soon as they are ready and prefixed with their line number.
      *
-     * @param args Command line arguments, expecting the server port number as the first argument.
+     * @param args Command line arguments, expecting the server port number, or "batch" followed by the input and output files,
+     *             followed by the options.
      */
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.err.println("Usage: java -jar CozzarinDavide.jar <port>");
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        boolean batchMode = args[0].equals(BATCH_COMMAND);
+        if (batchMode && args.length < 3) {
+            System.err.println(USAGE);
             System.exit(1);
         }
-        int port = Integer.parseInt(args[0]);
+        int port = batchMode ? 0 : Integer.parseInt(args[0]);
+        boolean taggedBatch = false;
+        int batchWorkers = Runtime.getRuntime().availableProcessors();
+        List<InetSocketAddress> peers = new ArrayList<>();
+        int shardTimeoutMillis = DEFAULT_SHARD_TIMEOUT_MILLIS;
+        Path storeDirectory = null;
+        int storeSizeMegabytes = DEFAULT_STORE_SIZE_MEGABYTES;
+        Path capturePath = null;
+        String warmupWorkload = null;
+        long offHeapThreshold = DEFAULT_OFFHEAP_THRESHOLD;
+        for (int i = batchMode ? 3 : 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+            switch (option[0]) {
+                case "--peers" -> peers = parsePeers(option[1]);
+                case "--shard-timeout" -> shardTimeoutMillis = Integer.parseInt(option[1]);
+                case "--store" -> storeDirectory = Path.of(option[1]);
+                case "--store-size" -> storeSizeMegabytes = Integer.parseInt(option[1]);
+                case "--capture" -> capturePath = Path.of(option[1]);
+                case "--warmup" -> warmupWorkload = option[1];
+                case "--offheap-threshold" -> offHeapThreshold = Long.parseLong(option[1]);
+                case "--order" -> taggedBatch = option[1].equals("tagged");
+                case "--batch-workers" -> batchWorkers = Integer.parseInt(option[1]);
+                case "--log-level" -> AsyncLogger.setLevel(AsyncLogger.Level.valueOf(option[1].toUpperCase(Locale.ROOT)));
+                default -> {
+                    System.err.println(USAGE);
+                    System.exit(1);
+                }
+            }
+        }
         try {
             Server server = new Server(port);
-            server.start();
+            server.setColumnAllocator(new ColumnAllocator(offHeapThreshold));
+            if (!peers.isEmpty()) {
+                server.setShardCoordinator(new ShardCoordinator(peers, shardTimeoutMillis));
+            }
+            if (warmupWorkload != null) {
+                server.setWarmup(warmupWorkload.equals("synthetic")
+                        ? Warmup.synthetic()
+                        : new Warmup(TrafficRecorder.readRequestLines(Path.of(warmupWorkload), QUIT_COMMAND)));
+            }
+            if (storeDirectory != null) {
+                ResultStore resultStore = ResultStore.open(storeDirectory, Math.multiplyExact(storeSizeMegabytes, 1024 * 1024));
+                server.setResultStore(resultStore);
+                closeOnShutdown(resultStore, "result store");
+            }
+            if (capturePath != null) {
+                TrafficRecorder trafficRecorder = new TrafficRecorder(capturePath);
+                server.setTrafficRecorder(trafficRecorder);
+                closeOnShutdown(trafficRecorder, "traffic capture");
+            }
+            if (batchMode) {
+                long batchStart = System.nanoTime();
+                long lines = new BatchRunner(server, batchWorkers, taggedBatch).run(Path.of(args[1]), Path.of(args[2]));
+                AsyncLogger.info("Batch of %d requests completed in %d ms", lines, (System.nanoTime() - batchStart) / 1_000_000);
+            } else {
+                server.start();
+            }
         } catch (IOException e) {
-            System.err.println("Unable to start the Server: " + e.getMessage());
+            System.err.println((batchMode ? "Unable to run the batch: " : "Unable to start the Server: ") + e.getMessage());
         }
     }
 
+    /**
+     * Registers a shutdown hook closing the given resource when the server is stopped.
+     *
+     * @param resource    The resource to close.
+     * @param description The description of the resource, used when it cannot be closed.
+     */
+    private static void closeOnShutdown(AutoCloseable resource, String description) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("Unable to close the " + description + ": " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Parses a comma separated list of peer addresses of the form host:port.
+     *
+     * @param rawPeers The list of peer addresses.
+     * @return The parsed peer addresses.
+     */
+    private static List<InetSocketAddress> parsePeers(String rawPeers) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String rawPeer : rawPeers.split(",")) {
+            int separator = rawPeer.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid peer address, expected host:port: " + rawPeer);
+            }
+            peers.add(new InetSocketAddress(rawPeer.substring(0, separator), Integer.parseInt(rawPeer.substring(separator + 1))));
+        }
+        return peers;
+    }
 
     /**
      * Starts the server, allowing it to accept client connections. Each connection is handled in a separate thread.
+     * If a warm-up is set, it is run before binding the server socket.
      */
     public void start() throws IOException {
+        if (warmup != null) {
+            long warmupStart = System.nanoTime();
+            int rounds = warmup.run(this);
+            AsyncLogger.info("Warm-up completed in %d ms (%d rounds)", (System.nanoTime() - warmupStart) / 1_000_000, rounds);
+        }
         try (ServerSocket serverSocket = new ServerSocket(port)){
-            System.out.printf("[%1$tY-%1$tm-%1$td %1$tT] Server started, listening on port %2$d%n", System.currentTimeMillis(), port);
+            AsyncLogger.info("Server started, listening on port %d", port);
             while (true) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    System.out.printf("[%1$tY-%1$tm-%1$td %1$tT] New connection from client: %2$s\n\n", System.currentTimeMillis(), clientSocket.getRemoteSocketAddress());
+                    AsyncLogger.info("New connection from client: %s", clientSocket.getRemoteSocketAddress());
                     ClientHandler clientHandler = new ClientHandler(clientSocket, this);
                     executorService.execute(clientHandler);
                 } catch (IOException e) {
-                    System.err.printf("Error accepting client connection due to %s\n", e);
+                    AsyncLogger.error("Error accepting client connection due to %s", e);
                 }
             }
         }catch (IOException e){
-            System.err.printf("Error starting the server on port %1$s due to %2$s", port, e.getMessage());
+            AsyncLogger.error("Error starting the server on port %s due to %s", port, e.getMessage());
         }
     }
 
+    /**
+     * Creates a server sharing the threads, the ComputationScheduler and the ColumnAllocator of this one,
+     * with its own statistics, prepared handles and SingleFlight, and without peers, result store or traffic capture.
+     * Requests processed by it exercise the same components as the ones of the clients, without being visible to them.
+     *
+     * @return The scratch server, which is never started.
+     */
+    public Server newScratchServer() {
+        return new Server(0, executorService, batchExecutorService, computationScheduler, columnAllocator);
+    }
+
+    /**
+     * Creates the pool computing the items of the batch requests. Its threads are bounded, so that a single batch
+     * of many items cannot start a thread per item and take every processor away from the other clients.
+     */
+    private static ExecutorService newBatchExecutorService(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-item");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
      * Getter for the QUIT_COMMAND String, it signifies that a client wishes to disconnect
      *
@@ -77,6 +259,16 @@ public class Server {
         return QUIT_COMMAND;
     }
 
+    /**
+     * Getter for the STOP_COMMAND String, it signifies that a client wishes to stop the streamed computation
+     * in progress and get its result so far
+     *
+     * @return The STOP_COMMAND String.
+     */
+    public String getStopCommand() {
+        return STOP_COMMAND;
+    }
+
     /**
      * Getter for the serverStats.
      *
@@ -85,6 +277,141 @@ public class Server {
     public ServerStats getServerStats(){
         return serverStats;
     }
+
+    /**
+     * Getter for the executorService.
+     *
+     * @return The ExecutorService running the connections.
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Getter for the batchExecutorService.
+     *
+     * @return The ExecutorService computing the items of the batch requests, with as many threads as processors.
+     */
+    public ExecutorService getBatchExecutorService() {
+        return batchExecutorService;
+    }
+
+    /**
+     * Getter for the computationScheduler.
+     *
+     * @return The ComputationScheduler evaluating the computations of all the connections.
+     */
+    public ComputationScheduler getComputationScheduler() {
+        return computationScheduler;
+    }
+
+    /**
+     * Getter for the columnAllocator.
+     *
+     * @return The ColumnAllocator of the variable values of the computations.
+     */
+    public ColumnAllocator getColumnAllocator() {
+        return columnAllocator;
+    }
+
+    /**
+     * Sets the allocator of the variable values, which decides the ranges stored off the heap.
+     *
+     * @param columnAllocator The ColumnAllocator of the variable values.
+     */
+    public void setColumnAllocator(ColumnAllocator columnAllocator) {
+        this.columnAllocator = columnAllocator;
+    }
+
+    /**
+     * Getter for the singleFlight.
+     *
+     * @return The SingleFlight sharing the result of a computation among the identical requests arriving while it runs.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Getter for the globalVariableValuesHandles.
+     *
+     * @return The variable values prepared by PREPARE_GLOBAL_VARS, shared by all the connections.
+     */
+    public PreparedHandles<List<VariableValues>> getGlobalVariableValuesHandles() {
+        return globalVariableValuesHandles;
+    }
+
+    /**
+     * Getter for the globalExpressionsHandles.
+     *
+     * @return The expressions prepared by PREPARE_GLOBAL_EXPRS, shared by all the connections.
+     */
+    public PreparedHandles<List<Expression>> getGlobalExpressionsHandles() {
+        return globalExpressionsHandles;
+    }
+
+    /**
+     * Getter for the shardCoordinator.
+     *
+     * @return The ShardCoordinator distributing large computations among the peers, or null if the server has no peers.
+     */
+    public ShardCoordinator getShardCoordinator() {
+        return shardCoordinator;
+    }
+
+    /**
+     * Makes the server coordinate a set of peers, to which large computations are distributed.
+     *
+     * @param shardCoordinator The ShardCoordinator of the peers.
+     */
+    public void setShardCoordinator(ShardCoordinator shardCoordinator) {
+        this.shardCoordinator = shardCoordinator;
+    }
+
+    /**
+     * Getter for the resultStore.
+     *
+     * @return The ResultStore persisting the computation results, or null if results are not persisted.
+     */
+    public ResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Makes the server look up and persist the computation results in the given store.
+     *
+     * @param resultStore The ResultStore of the computation results.
+     */
+    public void setResultStore(ResultStore resultStore) {
+        this.resultStore = resultStore;
+    }
+
+    /**
+     * Getter for the trafficRecorder.
+     *
+     * @return The TrafficRecorder capturing the raw requests, or null if the traffic is not captured.
+     */
+    public TrafficRecorder getTrafficRecorder() {
+        return trafficRecorder;
+    }
+
+    /**
+     * Makes the server record the raw requests it receives.
+     *
+     * @param trafficRecorder The TrafficRecorder of the raw requests.
+     */
+    public void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+        this.trafficRecorder = trafficRecorder;
+    }
+
+    /**
+     * Makes the server run the given warm-up before accepting connections.
+     *
+     * @param warmup The Warmup to run.
+     */
+    public void setWarmup(Warmup warmup) {
+        this.warmup = warmup;
+    }
 }
 
 
@@ -0,0 +1,214 @@
+package it.units.expressionserver.server.components;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger of the server, which keeps the console output off the accept loop and the connection handlers.
+ * Logging a message only stores its format, its arguments and the current time in a slot of a bounded ring buffer,
+ * without formatting it and without blocking; a background thread, parked while the buffer is empty and woken up
+ * by the producers that find it parked, drains the buffer, formats the messages with the
+ * timestamp of their second, cached since consecutive messages usually share it, and writes them in batches,
+ * the INFO and DEBUG ones to the standard output and the WARN and ERROR ones to the standard error.
+ * When the buffer is full the message is dropped and counted, and the number of dropped messages is logged
+ * as soon as there is room again. The messages left in the buffer are written when the JVM shuts down.
+ */
+public final class AsyncLogger {
+    /**
+     * The levels of the messages, in increasing order of severity.
+     */
+    public enum Level {DEBUG, INFO, WARN, ERROR, OFF}
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("'['yyyy-MM-dd HH:mm:ss'] '").withZone(ZoneId.systemDefault());
+
+    private static final Entry[] SLOTS = new Entry[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Thread DRAINER = new Thread(AsyncLogger::drainContinuously, "async-logger");
+    private static volatile boolean drainerParked;
+    private static volatile Level level = Level.INFO;
+    private static long head;
+    private static long reportedDropped;
+    private static long cachedSecond = Long.MIN_VALUE;
+    private static String cachedTimestamp;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            SLOTS[i] = new Entry();
+            SEQUENCES.set(i, i);
+        }
+        DRAINER.setDaemon(true);
+        DRAINER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncLogger::drain, "async-logger-shutdown"));
+    }
+
+    private AsyncLogger() {
+    }
+
+    /**
+     * Sets the minimum level of the messages written; the less severe ones are discarded without being buffered.
+     *
+     * @param level The minimum level, or OFF to discard all the messages.
+     */
+    public static void setLevel(Level level) {
+        AsyncLogger.level = level;
+    }
+
+    /**
+     * @return The number of messages dropped so far because the buffer was full.
+     */
+    public static long getDroppedCount() {
+        return DROPPED.get();
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * Buffers a message to be formatted with String.format and written by the background thread.
+     * The arguments are formatted later, so they should not be modified after the call.
+     *
+     * @param messageLevel The level of the message.
+     * @param format       The format of the message, without the timestamp and the line terminator.
+     * @param args         The arguments of the format.
+     */
+    public static void log(Level messageLevel, String format, Object... args) {
+        if (messageLevel.compareTo(level) < 0) {
+            return;
+        }
+        long timeMillis = System.currentTimeMillis();
+        long position = TAIL.get();
+        while (true) {
+            int index = (int) (position & MASK);
+            long difference = SEQUENCES.get(index) - position;
+            if (difference == 0) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    Entry entry = SLOTS[index];
+                    entry.level = messageLevel;
+                    entry.timeMillis = timeMillis;
+                    entry.format = format;
+                    entry.args = args;
+                    SEQUENCES.set(index, position + 1);
+                    wakeDrainer();
+                    return;
+                }
+                position = TAIL.get();
+            } else if (difference < 0) {
+                DROPPED.incrementAndGet();
+                wakeDrainer();
+                return;
+            } else {
+                position = TAIL.get();
+            }
+        }
+    }
+
+    private static void wakeDrainer() {
+        if (drainerParked) {
+            LockSupport.unpark(DRAINER);
+        }
+    }
+
+    /**
+     * Drains the buffer until it is empty, then parks until a producer wakes the thread up.
+     * The parked flag is raised before checking the buffer once more and the producers check it after publishing
+     * their message, both through volatile accesses, so either the drainer sees the message or the producer sees the flag.
+     */
+    private static void drainContinuously() {
+        while (true) {
+            if (!drain()) {
+                drainerParked = true;
+                if (!hasPending()) {
+                    LockSupport.park();
+                }
+                drainerParked = false;
+            }
+        }
+    }
+
+    private static synchronized boolean hasPending() {
+        return SEQUENCES.get((int) (head & MASK)) == head + 1 || DROPPED.get() != reportedDropped;
+    }
+
+    /**
+     * Writes the buffered messages, at most a buffer full at a time, and the number of messages dropped since the last report, if any.
+     * The drainer thread and the shutdown hook are the only consumers of the buffer, hence the lock.
+     *
+     * @return Whether any message has been written.
+     */
+    private static synchronized boolean drain() {
+        StringBuilder output = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        for (int drained = 0; drained < CAPACITY; drained++) {
+            int index = (int) (head & MASK);
+            if (SEQUENCES.get(index) != head + 1) {
+                break;
+            }
+            Entry entry = SLOTS[index];
+            StringBuilder target = entry.level.compareTo(Level.WARN) >= 0 ? errors : output;
+            target.append(timestamp(entry.timeMillis));
+            try {
+                target.append(String.format(entry.format, entry.args));
+            } catch (RuntimeException e) {
+                target.append(entry.format).append(" (unable to format the message: ").append(e).append(')');
+            }
+            target.append(System.lineSeparator());
+            entry.format = null;
+            entry.args = null;
+            SEQUENCES.set(index, head + CAPACITY);
+            head++;
+        }
+        long droppedSoFar = DROPPED.get();
+        if (droppedSoFar != reportedDropped) {
+            errors.append(timestamp(System.currentTimeMillis()))
+                    .append("Dropped ").append(droppedSoFar - reportedDropped).append(" log messages, the buffer was full")
+                    .append(System.lineSeparator());
+            reportedDropped = droppedSoFar;
+        }
+        if (!output.isEmpty()) {
+            System.out.print(output);
+            System.out.flush();
+        }
+        if (!errors.isEmpty()) {
+            System.err.print(errors);
+            System.err.flush();
+        }
+        return !output.isEmpty() || !errors.isEmpty();
+    }
+
+    private static String timestamp(long timeMillis) {
+        long second = Math.floorDiv(timeMillis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = TIMESTAMP_FORMATTER.format(Instant.ofEpochSecond(second));
+        }
+        return cachedTimestamp;
+    }
+
+    private static final class Entry {
+        private Level level;
+        private long timeMillis;
+        private String format;
+        private Object[] args;
+    }
+}
@@ -0,0 +1,183 @@
+package it.units.expressionserver.server.components;
+
+import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.domain.response.ErrorResponse;
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.events.RequestProcessEvent;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline batch mode: runs the request lines of a file through the same RequestParser and Request.process pipeline
+ * as the connections, without any socket, and writes a response line for each request line to an output file.
+ * The input is memory-mapped, in regions of at most 1 GB, and its lines are parsed and processed in parallel
+ * by a pool of workers, with a bounded number of lines in flight.
+ * The responses are written either in the order of the input lines, or as soon as they are ready, prefixed
+ * with the number of their line as "line;response". The batch ends at the end of the file or at a quit command.
+ * PREPARE lines are parsed in input order as they are read, so that the lines following them can refer to their handles.
+ */
+public class BatchRunner {
+    private static final long MAX_REGION_BYTES = 1L << 30;
+    private static final int PENDING_LINES_PER_WORKER = 64;
+    private static final String PREPARE_PREFIX = "PREPARE_";
+
+    private final Server server;
+    private final RequestParser requestParser;
+    private final int workers;
+    private final boolean tagged;
+    private ExecutorService executorService;
+    private CompletionService<String> completionService;
+    private final ArrayDeque<Future<String>> pendingInOrder = new ArrayDeque<>();
+    private int pendingCount;
+
+    /**
+     * Constructs a new BatchRunner instance.
+     *
+     * @param server  The server whose components process the requests and whose statistics record them.
+     * @param workers The number of lines processed in parallel.
+     * @param tagged  Whether the responses are written as soon as they are ready, prefixed with the number of their line,
+     *                instead of in the order of the input lines.
+     */
+    public BatchRunner(Server server, int workers, boolean tagged) {
+        this.server = server;
+        this.requestParser = new RequestParser(server.getGlobalVariableValuesHandles(), server.getGlobalExpressionsHandles());
+        this.workers = workers;
+        this.tagged = tagged;
+    }
+
+    /**
+     * Processes the request lines of the input file and writes their responses to the output file.
+     *
+     * @param inputPath  The file of the request lines.
+     * @param outputPath The file of the responses, replaced if it exists.
+     * @return The number of request lines processed.
+     * @throws IOException If the files cannot be read or written, or a line is longer than a region.
+     */
+    public long run(Path inputPath, Path outputPath) throws IOException {
+        executorService = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        completionService = new ExecutorCompletionService<>(executorService);
+        int maxPending = workers * PENDING_LINES_PER_WORKER;
+        long lineNumber = 0;
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ);
+             BufferedWriter output = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            long size = input.size();
+            long regionStart = 0;
+            boolean quit = false;
+            while (regionStart < size && !quit) {
+                long regionSize = Math.min(MAX_REGION_BYTES, size - regionStart);
+                boolean lastRegion = regionStart + regionSize == size;
+                MappedByteBuffer region = input.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+                int limit = region.limit();
+                int lineStart = 0;
+                for (int i = 0; i <= limit && !quit; i++) {
+                    boolean endOfLine = i < limit ? region.get(i) == '\n' : lastRegion && lineStart < limit;
+                    if (!endOfLine) {
+                        continue;
+                    }
+                    String line = decode(region, lineStart, i);
+                    lineStart = i + 1;
+                    if (line.equals(server.getQuitCommand())) {
+                        quit = true;
+                        continue;
+                    }
+                    submit(line, ++lineNumber);
+                    while (pendingCount >= maxPending) {
+                        writeNext(output);
+                    }
+                }
+                if (!lastRegion && lineStart == 0) {
+                    throw new IOException("Request line longer than " + MAX_REGION_BYTES + " bytes at line " + (lineNumber + 1));
+                }
+                regionStart += lastRegion ? regionSize : lineStart;
+            }
+            while (pendingCount > 0) {
+                writeNext(output);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return lineNumber;
+    }
+
+    private static String decode(MappedByteBuffer region, int from, int to) {
+        if (to > from && region.get(to - 1) == '\r') {
+            to--;
+        }
+        byte[] bytes = new byte[to - from];
+        region.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void submit(String line, long lineNumber) {
+        Callable<String> task;
+        if (line.trim().startsWith(PREPARE_PREFIX)) {
+            String response = respond(line, lineNumber);
+            task = () -> response;
+        } else {
+            task = () -> respond(line, lineNumber);
+        }
+        if (tagged) {
+            completionService.submit(task);
+        } else {
+            pendingInOrder.add(executorService.submit(task));
+        }
+        pendingCount++;
+    }
+
+    private String respond(String line, long lineNumber) {
+        long startTime = System.nanoTime();
+        Response response = null;
+        try {
+            Request request = requestParser.parseRequest(line);
+            RequestProcessEvent event = new RequestProcessEvent();
+            event.begin();
+            try {
+                response = request.process(server, startTime);
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setRequest(request);
+                    event.setSucceeded(response != null && !(response instanceof ErrorResponse));
+                    event.commit();
+                }
+            }
+        } catch (Exception e) {
+            response = new ErrorResponse(e.getMessage());
+        }
+        return tagged ? lineNumber + ";" + response.printResponse() : response.printResponse();
+    }
+
+    private void writeNext(BufferedWriter output) throws IOException {
+        try {
+            Future<String> next = tagged ? completionService.take() : pendingInOrder.poll();
+            output.write(next.get());
+            output.newLine();
+            pendingCount--;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the batch responses", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to process a batch request", e.getCause());
+        }
+    }
+}
@@ -1,28 +1,42 @@
 package it.units.expressionserver.server.components;
 
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.domain.request.PrepareRequest;
 import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.domain.request.StatRequest;
+import it.units.expressionserver.domain.request.StreamChannel;
+import it.units.expressionserver.domain.request.StreamRequest;
 import it.units.expressionserver.domain.response.ErrorResponse;
 import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.exceptions.ProcessException;
 import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.events.ConnectionEvent;
+import it.units.expressionserver.server.events.RequestProcessEvent;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
 
 
 public class ClientHandler extends Thread implements Runnable{
     private final Socket clientSocket;
     private final Server server;
     private final RequestParser requestParser;
+    private final ConnectionEvent connectionEvent;
+    private long requestsServed;
 
 
     /**
      * Constructs a new ClientHandler instance with the given Socket and ExpressionServer.
-     * Initializes a new RequestParser with the provided Server.
+     * Initializes a new RequestParser sharing the global prepared handles of the provided Server,
+     * and begins the ConnectionEvent of the connection, since the handler is created as soon as the connection is accepted.
      *
      * @param clientSocket The Socket through which the client is connected.
      * @param server The Server instance associated with this client handler.
@@ -30,46 +44,241 @@ public class ClientHandler extends Thread implements Runnable{
     public ClientHandler(Socket clientSocket, Server server) {
         this.clientSocket = clientSocket;
         this.server = server;
-        this.requestParser = new RequestParser();
+        this.requestParser = new RequestParser(server.getGlobalVariableValuesHandles(), server.getGlobalExpressionsHandles());
+        this.connectionEvent = new ConnectionEvent();
+        this.connectionEvent.begin();
     }
 
     /**
      * The main method for handling client connections and processing requests.
      * Continuously reads requests from the client, processes them, and sends the responses back to the client.
+     * The responses to pipelined requests are coalesced by a ResponseWriter, which is flushed as soon as no more
+     * requests are waiting to be read, before processing a request that may take long, before processing a quick
+     * one once the held back responses are due, and before waiting for a request line not completely received yet,
+     * so that a response is never held back behind a long computation or a slow client.
      * If the client sends a quit command or closes the connection abruptly, the connection is terminated.
+     * The connection and the processing of each request are recorded as Flight Recorder events when it is enabled.
      */
     @Override
     public void run() {
         try (clientSocket) {
+            clientSocket.setTcpNoDelay(true);
             InputStream input = clientSocket.getInputStream();
             OutputStream output = clientSocket.getOutputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-            PrintWriter writer = new PrintWriter(output, true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            try (ResponseWriter writer = new ResponseWriter(output)) {
+                serve(reader, writer);
+            }
+            AsyncLogger.info("Client %s abruptly closed connection", clientSocket.getInetAddress());
+
+        } catch (IOException e) {
+            AsyncLogger.error("IO error: %s", e);
+        } finally {
+            AsyncLogger.info("Client %s disconnected from Server", clientSocket.getInetAddress());
+            connectionEvent.end();
+            if (connectionEvent.shouldCommit()) {
+                connectionEvent.setRemoteAddress(String.valueOf(clientSocket.getRemoteSocketAddress()));
+                connectionEvent.setRequests(requestsServed);
+                connectionEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * Reads and processes the requests of the client until it quits or closes the connection.
+     * While a streamed computation is in progress, the lines sent by the client are checked for the stop command,
+     * and the other ones are kept to be processed afterwards. Only the characters already received are consumed
+     * then, a line still being received being completed by the next read, so that the computation never waits for the client. A stop command received when no computation
+     * is streamed is ignored, since it arrived too late.
+     *
+     * @param reader The reader of the requests.
+     * @param writer The writer of the responses.
+     * @throws IOException If the connection fails.
+     */
+    private void serve(BufferedReader reader, ResponseWriter writer) throws IOException {
+        TrafficRecorder trafficRecorder = server.getTrafficRecorder();
+        int connectionId = trafficRecorder != null ? trafficRecorder.newConnectionId() : 0;
+        ArrayDeque<String> pendingLines = new ArrayDeque<>();
+        StringBuilder partialLine = new StringBuilder();
+        Consumer<String> lineRecorder = line -> {
+            if (trafficRecorder != null) {
+                trafficRecorder.record(connectionId, line);
+            }
+        };
+        LineSource lineSource = () -> {
+            String line = null;
+            if (writer.isHolding()) {
+                try {
+                    line = readReceivedLine(reader, partialLine);
+                } catch (EOFException e) {
+                    // the blocking read below returns what is left
+                }
+                if (line == null) {
+                    writer.flush();
+                }
+            }
+            if (line == null) {
+                line = reader.readLine();
+                if (!partialLine.isEmpty()) {
+                    if (line != null) {
+                        partialLine.append(line);
+                    }
+                    line = withoutCarriageReturn(partialLine);
+                    partialLine.setLength(0);
+                }
+            }
+            if (line != null) {
+                lineRecorder.accept(line);
+            }
+            return line;
+        };
+        StreamChannel streamChannel = new StreamChannel() {
+            @Override
+            public void emit(String line) throws IOException {
+                writer.writeResponse(line, false);
+            }
 
-            String line;
-            Request request;
-            while ((line = reader.readLine()) != null) {
+            @Override
+            public boolean stopRequested() throws IOException {
+                String line;
                 try {
-                    long startTime = System.nanoTime();
-                    if(line.equals(server.getQuitCommand())){
-                        break;
+                    while ((line = readReceivedLine(reader, partialLine)) != null) {
+                        lineRecorder.accept(line);
+                        if (line.equals(server.getStopCommand())) {
+                            return true;
+                        }
+                        pendingLines.add(line);
                     }
-                    request = requestParser.parseRequest(line);
-                    Response response = request.process(server, startTime);
-                    writer.println(response.printResponse());
+                } catch (EOFException e) {
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        String line;
+        Request request;
+        Response response;
+        while ((line = pendingLines.isEmpty() ? lineSource.readLine() : pendingLines.poll()) != null) {
+            long startTime = System.nanoTime();
+            if(line.equals(server.getQuitCommand())){
+                break;
+            }
+            if (line.equals(server.getStopCommand())) {
+                continue;
+            }
+            requestsServed++;
+            request = null;
+            response = null;
+            try {
+                request = requestParser.parseRequest(line);
+            } catch (Exception e) {
+                response = new ErrorResponse(e.getMessage());
+            }
+            if (request != null) {
+                if (isQuick(request)) {
+                    writer.flushIfDue();
+                } else {
+                    writer.flush();
+                }
+                try {
+                    response = process(request, startTime, streamChannel);
                 } catch (Exception e) {
-                    Response errorResponse = new ErrorResponse(e.getMessage());
-                    writer.println(errorResponse.printResponse());
+                    response = new ErrorResponse(e.getMessage());
                 }
             }
-            System.out.printf("[%1$tY-%1$tm-%1$td %1$tT] Client %2$s abruptly closed connection\n", System.currentTimeMillis(), clientSocket.getInetAddress());
+            writer.writeResponse(response.printResponse(), !pendingLines.isEmpty() || reader.ready());
+        }
+    }
 
-        } catch (IOException e) {
-            System.err.printf("[%1$tY-%1$tm-%1$td %1$tT] IO error: %2$s%n", System.currentTimeMillis(), e);
+    /**
+     * Processes a parsed request, recording a RequestProcessEvent.
+     *
+     * @param request       The parsed request.
+     * @param startTime     The start time of the request processing.
+     * @param streamChannel The channel of the partial results, used if the request is streamed.
+     * @return The response to the request.
+     * @throws ProcessException If there is an error during the processing of the request.
+     */
+    private Response process(Request request, long startTime, StreamChannel streamChannel) throws ProcessException {
+        RequestProcessEvent event = new RequestProcessEvent();
+        event.begin();
+        Response response = null;
+        try {
+            response = request instanceof StreamRequest streamRequest
+                    ? streamRequest.process(server, startTime, streamChannel)
+                    : request.process(server, startTime);
+            return response;
         } finally {
-            System.out.printf("[%1$tY-%1$tm-%1$td %1$tT] Client %2$s disconnected from Server%n", System.currentTimeMillis(), clientSocket.getInetAddress());
+            event.end();
+            if (event.shouldCommit()) {
+                event.setRequest(request);
+                event.setSucceeded(response != null && !(response instanceof ErrorResponse));
+                event.commit();
+            }
         }
     }
 
-}
+    /**
+     * Tells whether a request is processed quickly enough to keep the previous responses held back while it runs:
+     * statistics and prepare requests, and the computations evaluated in a single chunk of the ComputationScheduler.
+     *
+     * @param request The parsed request.
+     * @return Whether the request is quick.
+     */
+    private boolean isQuick(Request request) {
+        if (request instanceof StatRequest || request instanceof PrepareRequest) {
+            return true;
+        }
+        if (request instanceof ComputationRequest computationRequest) {
+            try {
+                return server.getComputationScheduler().countChunks(computationRequest.countTuples(), computationRequest.getExpressions().size()) <= 1;
+            } catch (RuntimeException | ProcessException e) {
+                // the computation fails as soon as it is processed
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Reads the characters already received, without blocking, up to the end of the next line.
+     *
+     * @param reader      The reader of the requests.
+     * @param partialLine The characters of the line being received, completed by each call.
+     * @return The line, without its terminator, or null if no complete line has been received yet.
+     * @throws EOFException If the client closed the connection.
+     * @throws IOException  If the connection fails.
+     */
+    private static String readReceivedLine(BufferedReader reader, StringBuilder partialLine) throws IOException {
+        while (reader.ready()) {
+            int c = reader.read();
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c != '\n') {
+                partialLine.append((char) c);
+                continue;
+            }
+            String line = withoutCarriageReturn(partialLine);
+            partialLine.setLength(0);
+            return line;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the given line without its trailing carriage return, which remains when the line terminator
+     * of the client is split between two reads.
+     */
+    private static String withoutCarriageReturn(StringBuilder line) {
+        int length = line.length();
+        return line.substring(0, length > 0 && line.charAt(length - 1) == '\r' ? length - 1 : length);
+    }
+
+    @FunctionalInterface
+    private interface LineSource {
+        String readLine() throws IOException;
+    }
+
+}
@@ -0,0 +1,258 @@
+package it.units.expressionserver.server.components;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.exceptions.ProcessException;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Schedules the evaluation of computations fairly among the clients.
+ * A computation is split in chunks of a bounded number of tuples and queued under the connection that submitted it;
+ * the worker threads take one chunk at a time from each connection in round-robin order, so that a client submitting
+ * a huge grid does not delay the computations of the other clients, whose chunks are interleaved with its own.
+ * Computations fitting in a single chunk are evaluated directly by the submitting thread.
+ */
+public class ComputationScheduler {
+    private static final long EVALUATIONS_PER_CHUNK = 16_384;
+
+    /**
+     * Evaluates a range of tuples of a computation.
+     */
+    @FunctionalInterface
+    public interface ChunkEvaluator {
+        /**
+         * @param from The index of the first tuple, inclusive.
+         * @param to   The index of the last tuple, exclusive.
+         * @return The aggregate of the values of the expressions on the given tuples.
+         */
+        Aggregate evaluate(long from, long to);
+    }
+
+    private record Chunk(Job job, long from, long to) {
+    }
+
+    /**
+     * A computation queued under its connection. Its chunks are not created up front: a cursor hands out
+     * the next range of tuples each time a worker takes a chunk of the job.
+     */
+    private static class Job {
+        private final ChunkEvaluator evaluator;
+        private final Aggregate aggregate;
+        private final long to;
+        private final long chunkSize;
+        // Guarded by the queues of the scheduler
+        private long next;
+        // Guarded by the job
+        private long pendingChunks;
+        private Throwable failure;
+
+        private Job(ChunkEvaluator evaluator, Aggregate aggregate, long from, long to, long chunkSize) {
+            this.evaluator = evaluator;
+            this.aggregate = aggregate;
+            this.next = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.pendingChunks = (to - from + chunkSize - 1) / chunkSize;
+        }
+
+        private boolean hasNextChunk() {
+            return next < to;
+        }
+
+        private Chunk nextChunk() {
+            long from = next;
+            next = Math.min(to, from + chunkSize);
+            return new Chunk(this, from, next);
+        }
+
+        /**
+         * Gives up the chunks not handed out yet, once the job failed or was cancelled.
+         */
+        private void skipRemainingChunks() {
+            long skipped = (to - next + chunkSize - 1) / chunkSize;
+            next = to;
+            synchronized (this) {
+                pendingChunks -= skipped;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Evaluates a chunk and merges its aggregate. Whatever the evaluator throws, Errors included, is kept
+         * as the failure of the job and the chunk is still counted as done, so that the submitter is never left waiting.
+         */
+        private void run(Chunk chunk) {
+            Aggregate chunkAggregate = null;
+            Throwable chunkFailure = null;
+            try {
+                if (!isFailed()) {
+                    chunkAggregate = evaluator.evaluate(chunk.from(), chunk.to());
+                }
+            } catch (Throwable e) {
+                chunkFailure = e;
+            } finally {
+                synchronized (this) {
+                    if (chunkAggregate != null) {
+                        aggregate.merge(chunkAggregate);
+                    }
+                    if (chunkFailure != null && failure == null) {
+                        failure = chunkFailure;
+                    }
+                    pendingChunks--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized void cancel() {
+            if (failure == null) {
+                failure = new CancellationException("Computation cancelled");
+            }
+        }
+
+        private synchronized boolean isFailed() {
+            return failure != null;
+        }
+
+        private synchronized Aggregate await() throws InterruptedException {
+            while (pendingChunks > 0) {
+                wait();
+            }
+            if (failure instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (failure instanceof Error error) {
+                throw error;
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Unable to evaluate a chunk of the computation", failure);
+            }
+            return aggregate;
+        }
+    }
+
+    private final LinkedHashMap<Object, ArrayDeque<Job>> queues = new LinkedHashMap<>();
+    private final int workers;
+    private boolean started;
+
+    /**
+     * Constructs a new ComputationScheduler instance. The worker threads are started on the first computation
+     * that needs them.
+     *
+     * @param workers The number of worker threads.
+     */
+    public ComputationScheduler(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Evaluates the tuples whose index lies in [from, to) and waits for the result.
+     *
+     * @param owner       The connection the computation belongs to, which the fairness is granted among.
+     * @param from        The index of the first tuple, inclusive.
+     * @param to          The index of the last tuple, exclusive.
+     * @param expressions The number of expressions evaluated on each tuple, which the chunk size is based on.
+     * @param evaluator   The evaluator of the chunks.
+     * @param aggregate   The empty aggregate the chunk aggregates are merged into.
+     * @return The aggregate of all the chunks.
+     * @throws ProcessException If the thread is interrupted while waiting for the chunks.
+     */
+    public Aggregate evaluate(Object owner, long from, long to, int expressions, ChunkEvaluator evaluator, Aggregate aggregate) throws ProcessException {
+        if (countChunks(to - from, expressions) <= 1) {
+            aggregate.merge(evaluator.evaluate(from, to));
+            return aggregate;
+        }
+
+        Job job = new Job(evaluator, aggregate, from, to, chunkSize(expressions));
+        synchronized (queues) {
+            startWorkers();
+            queues.computeIfAbsent(owner, key -> new ArrayDeque<>()).add(job);
+            queues.notifyAll();
+        }
+        try {
+            return job.await();
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while waiting for the computation", e);
+        }
+    }
+
+    /**
+     * Counts the chunks a computation is split in.
+     *
+     * @param tuples      The number of tuples of the computation.
+     * @param expressions The number of expressions evaluated on each tuple.
+     * @return The number of chunks; a computation of a single chunk is evaluated by the submitting thread.
+     */
+    public long countChunks(long tuples, int expressions) {
+        long chunkSize = chunkSize(expressions);
+        return (tuples + chunkSize - 1) / chunkSize;
+    }
+
+    private static long chunkSize(int expressions) {
+        return Math.max(1, EVALUATIONS_PER_CHUNK / Math.max(1, expressions));
+    }
+
+    private void startWorkers() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "computation-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = takeNextChunk();
+            } catch (InterruptedException e) {
+                return;
+            }
+            chunk.job().run(chunk);
+        }
+    }
+
+    /**
+     * Takes the next chunk of the oldest job of the connection that has been waiting the longest, then moves
+     * that connection to the back of the round if it has more chunks queued. The jobs found failed or cancelled
+     * are dropped with all their chunks not handed out yet.
+     */
+    private Chunk takeNextChunk() throws InterruptedException {
+        synchronized (queues) {
+            while (true) {
+                while (queues.isEmpty()) {
+                    queues.wait();
+                }
+                Iterator<Map.Entry<Object, ArrayDeque<Job>>> iterator = queues.entrySet().iterator();
+                Map.Entry<Object, ArrayDeque<Job>> next = iterator.next();
+                iterator.remove();
+                Job job = next.getValue().peek();
+                Chunk chunk = null;
+                if (job.isFailed()) {
+                    job.skipRemainingChunks();
+                } else {
+                    chunk = job.nextChunk();
+                }
+                if (!job.hasNextChunk()) {
+                    next.getValue().poll();
+                }
+                if (!next.getValue().isEmpty()) {
+                    queues.put(next.getKey(), next.getValue());
+                }
+                if (chunk != null) {
+                    return chunk;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package it.units.expressionserver.server.components;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The parsed forms registered by PREPARE commands, each identified by a short handle made of a prefix and a number.
+ * Preparing the same text twice returns the same handle. When the capacity is exceeded, the least recently
+ * used entry is evicted, and requests referring to its handle fail until it is prepared again.
+ *
+ * @param <T> The type of the parsed forms.
+ */
+public class PreparedHandles<T> {
+    /**
+     * The number of handles of each kind a connection can hold.
+     */
+    public static final int CONNECTION_CAPACITY = 256;
+    /**
+     * The number of handles of each kind shared by all the connections.
+     */
+    public static final int GLOBAL_CAPACITY = 4096;
+
+    private final String prefix;
+    private final int capacity;
+    private final LinkedHashMap<String, T> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> handlesByText = new HashMap<>();
+    private final Map<String, String> textsByHandle = new HashMap<>();
+    private long nextId = 1;
+
+    /**
+     * Constructs a new PreparedHandles instance.
+     *
+     * @param prefix   The prefix of the handles, which tells them apart from the handles of the other instances.
+     * @param capacity The maximum number of entries.
+     */
+    public PreparedHandles(String prefix, int capacity) {
+        this.prefix = prefix;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Registers the parsed form of a text, unless the text is already registered.
+     *
+     * @param text   The text to prepare.
+     * @param parser The parser of the text, invoked only if the text is not registered yet.
+     * @return The handle of the parsed form.
+     */
+    public synchronized String prepare(String text, Supplier<T> parser) {
+        String handle = handlesByText.get(text);
+        if (handle != null) {
+            entries.get(handle);
+            return handle;
+        }
+        T parsed = parser.get();
+        handle = prefix + nextId++;
+        entries.put(handle, parsed);
+        handlesByText.put(text, handle);
+        textsByHandle.put(handle, text);
+        if (entries.size() > capacity) {
+            String eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            handlesByText.remove(textsByHandle.remove(eldest));
+        }
+        return handle;
+    }
+
+    /**
+     * Looks up the parsed form of a handle.
+     *
+     * @param handle The handle, without the leading '@'.
+     * @return The parsed form, or null if the handle is unknown or has been evicted.
+     */
+    public synchronized T get(String handle) {
+        return entries.get(handle);
+    }
+
+    /**
+     * Checks whether a handle has been issued by this instance.
+     *
+     * @param handle The handle, without the leading '@'.
+     * @return Whether the handle is made of the prefix of this instance followed by a number.
+     */
+    public boolean issued(String handle) {
+        return handle.length() > prefix.length() && handle.startsWith(prefix)
+                && handle.substring(prefix.length()).chars().allMatch(Character::isDigit);
+    }
+}
@@ -8,57 +8,306 @@ import it.units.expressionserver.domain.VariableValues;
 import it.units.expressionserver.exceptions.VariableValuesException;
 import it.units.expressionserver.exceptions.VariableValuesParsingException;
 import it.units.expressionserver.exceptions.RequestParsingException;
+import it.units.expressionserver.domain.request.ApproximateRequest;
+import it.units.expressionserver.domain.request.BatchRequest;
 import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.domain.request.ExplainRequest;
+import it.units.expressionserver.domain.request.PrepareRequest;
+import it.units.expressionserver.domain.request.ProfileRequest;
 import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.domain.request.ShardRequest;
 import it.units.expressionserver.domain.request.StatRequest;
+import it.units.expressionserver.domain.request.StreamRequest;
+import it.units.expressionserver.server.events.RequestParseEvent;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public final class RequestParser {
+    private static final String COMPUTATION_REQUEST_PATTERN = "(MIN|MAX|AVG|COUNT|SUM|STDDEV|MEDIAN|P95)_(GRID|LIST);.+;.+";
+    private static final String APPROXIMATE_REQUEST_PATTERN = "(MIN|MAX|AVG|SUM)_(GRID|LIST)_APPROX(:[^:;]+(:[^:;]+)?)?;.+;.+";
+    private static final String SHARD_REQUEST_PATTERN = "SHARD;[0-9]+;[0-9]+;.+";
+    private static final String BATCH_PREFIX = "BATCH|";
+    private static final String PROFILE_PREFIX = "PROFILE ";
+    private static final String EXPLAIN_PREFIX = "EXPLAIN ";
+    private static final String STREAM_PREFIX = "STREAM ";
+    private static final String STREAM_INTERVAL_PATTERN = "[0-9]+ .+";
+    private static final String PREPARE_REQUEST_PATTERN = "PREPARE_(GLOBAL_)?(VARS|EXPRS);.+";
+    private static final String HANDLE_PREFIX = "@";
+
+    private final PreparedHandles<List<VariableValues>> variableValuesHandles = new PreparedHandles<>("v", PreparedHandles.CONNECTION_CAPACITY);
+    private final PreparedHandles<List<Expression>> expressionsHandles = new PreparedHandles<>("e", PreparedHandles.CONNECTION_CAPACITY);
+    private final PreparedHandles<List<VariableValues>> globalVariableValuesHandles;
+    private final PreparedHandles<List<Expression>> globalExpressionsHandles;
+
+    /**
+     * Constructs a new RequestParser instance whose global handles are not shared with any other parser.
+     */
+    public RequestParser() {
+        this(new PreparedHandles<>("gv", PreparedHandles.GLOBAL_CAPACITY), new PreparedHandles<>("ge", PreparedHandles.GLOBAL_CAPACITY));
+    }
+
+    /**
+     * Constructs a new RequestParser instance for a connection. The handles prepared by PREPARE_VARS and PREPARE_EXPRS
+     * belong to the parser, while the ones prepared by PREPARE_GLOBAL_VARS and PREPARE_GLOBAL_EXPRS go to the given
+     * instances, shared by all the connections.
+     *
+     * @param globalVariableValuesHandles The variable values prepared globally.
+     * @param globalExpressionsHandles    The expressions prepared globally.
+     */
+    public RequestParser(PreparedHandles<List<VariableValues>> globalVariableValuesHandles, PreparedHandles<List<Expression>> globalExpressionsHandles) {
+        this.globalVariableValuesHandles = globalVariableValuesHandles;
+        this.globalExpressionsHandles = globalExpressionsHandles;
+    }
 
     /**
      * Parses the raw request and constructs a corresponding Request object.
+     * The parsing is recorded as a RequestParseEvent when Flight Recorder is enabled.
      *
      * @param rawRequest The raw request string.
      * @return The parsed Request object.
      * @throws RequestParsingException If there is an error in parsing the request.
      */
     public Request parseRequest(String rawRequest) throws RequestParsingException {
-        rawRequest = rawRequest.trim();
+        RequestParseEvent event = new RequestParseEvent();
+        event.begin();
+        Request request = null;
+        try {
+            request = parse(rawRequest.trim());
+            return request;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setLineLength(rawRequest.length());
+                if (request != null) {
+                    event.setRequest(request);
+                    event.setSucceeded(true);
+                }
+                event.commit();
+            }
+        }
+    }
+
+    private Request parse(String rawRequest) throws RequestParsingException {
 
         if (rawRequest.equals("STAT_REQS") || rawRequest.equals("STAT_AVG_TIME") || rawRequest.equals("STAT_MAX_TIME")) {
             return new StatRequest(rawRequest);
         }
 
-        if (rawRequest.matches("(MIN|MAX|AVG|COUNT)_(GRID|LIST);.+;.+")) {
-            String[] components = rawRequest.split(";",3);
-            if (components.length < 3) {
-                throw new IllegalArgumentException("Invalid ComputationRequest format");
+        if (rawRequest.startsWith(PROFILE_PREFIX)) {
+            long parseStart = System.nanoTime();
+            ComputationRequest computationRequest = parsePrefixedComputationRequest(rawRequest.substring(PROFILE_PREFIX.length()));
+            return new ProfileRequest(computationRequest, System.nanoTime() - parseStart);
+        }
+
+        if (rawRequest.startsWith(EXPLAIN_PREFIX)) {
+            return new ExplainRequest(parsePrefixedComputationRequest(rawRequest.substring(EXPLAIN_PREFIX.length())));
+        }
+
+        if (rawRequest.startsWith(STREAM_PREFIX)) {
+            String streamedRequest = rawRequest.substring(STREAM_PREFIX.length()).trim();
+            long intervalMillis = StreamRequest.DEFAULT_INTERVAL_MILLIS;
+            if (streamedRequest.matches(STREAM_INTERVAL_PATTERN)) {
+                String[] components = streamedRequest.split(" ", 2);
+                intervalMillis = Long.parseLong(components[0]);
+                streamedRequest = components[1];
             }
-            String computationType = components[0];
-            List<VariableValues> variableValues = parseVariableValues(components[1]);
-            List<Expression> expressions = parseExpressions(components[2]);
+            return new StreamRequest(parsePrefixedComputationRequest(streamedRequest), intervalMillis);
+        }
 
-            return new ComputationRequest(computationType, variableValues, expressions);
+        if (rawRequest.startsWith(BATCH_PREFIX)) {
+            return parseBatchRequest(rawRequest.substring(BATCH_PREFIX.length()));
+        }
+
+        if (rawRequest.matches(COMPUTATION_REQUEST_PATTERN)) {
+            return parseComputationRequest(rawRequest, new HashMap<>(), new HashMap<>());
+        }
+
+        if (rawRequest.matches(APPROXIMATE_REQUEST_PATTERN)) {
+            return parseApproximateRequest(rawRequest);
+        }
 
+        if (rawRequest.matches(PREPARE_REQUEST_PATTERN)) {
+            return parsePrepareRequest(rawRequest);
+        }
+
+        if (rawRequest.matches(SHARD_REQUEST_PATTERN)) {
+            String[] components = rawRequest.split(";", 4);
+            long from = Long.parseLong(components[1]);
+            long to = Long.parseLong(components[2]);
+            if (!components[3].matches(COMPUTATION_REQUEST_PATTERN)) {
+                throw new RequestParsingException("Invalid ComputationRequest in SHARD request");
+            }
+            return new ShardRequest(from, to, parseComputationRequest(components[3], new HashMap<>(), new HashMap<>()));
         }
         throw new RequestParsingException("Invalid request format");
     }
 
+    /**
+     * Parses the computation request following a PROFILE, EXPLAIN or STREAM prefix.
+     *
+     * @param rawRequest The raw request following the prefix.
+     * @return The parsed ComputationRequest object.
+     * @throws RequestParsingException If the request following the prefix is not a computation request.
+     */
+    private ComputationRequest parsePrefixedComputationRequest(String rawRequest) throws RequestParsingException {
+        rawRequest = rawRequest.trim();
+        if (!rawRequest.matches(COMPUTATION_REQUEST_PATTERN)) {
+            throw new RequestParsingException("Invalid request format, PROFILE, EXPLAIN and STREAM apply to computation requests only");
+        }
+        return parseComputationRequest(rawRequest, new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Parses a PREPARE command, of the form "PREPARE_VARS;variable values" or "PREPARE_EXPRS;expressions",
+     * optionally with GLOBAL after PREPARE, and registers the parsed variable values or expressions under a handle.
+     * Computation requests refer to the handle as "@handle" in place of the variable values or expressions.
+     *
+     * @param rawRequest The raw PREPARE command.
+     * @return The PrepareRequest returning the handle.
+     */
+    private PrepareRequest parsePrepareRequest(String rawRequest) {
+        String[] components = rawRequest.split(";", 2);
+        boolean global = components[0].startsWith("PREPARE_GLOBAL_");
+        String text = components[1];
+        String handle;
+        if (components[0].endsWith("_VARS")) {
+            handle = (global ? globalVariableValuesHandles : variableValuesHandles)
+                    .prepare(text, () -> parseVariableValues(text, new HashMap<>()));
+        } else {
+            handle = (global ? globalExpressionsHandles : expressionsHandles)
+                    .prepare(text, () -> parseExpressions(text, new HashMap<>()));
+        }
+        return new PrepareRequest(handle);
+    }
+
+    /**
+     * Parses an approximate computation request, of the form "KIND_APPROX[:relative error[:confidence]];variable values;expressions".
+     *
+     * @param rawRequest The raw approximate request.
+     * @return The parsed ApproximateRequest object.
+     * @throws RequestParsingException If the relative error or the confidence is not a number.
+     */
+    private ApproximateRequest parseApproximateRequest(String rawRequest) throws RequestParsingException {
+        String[] components = rawRequest.split(";", 2);
+        String[] kindComponents = components[0].split(":");
+        double relativeError = ApproximateRequest.DEFAULT_RELATIVE_ERROR;
+        double confidence = ApproximateRequest.DEFAULT_CONFIDENCE;
+        try {
+            if (kindComponents.length > 1) {
+                relativeError = Double.parseDouble(kindComponents[1]);
+            }
+            if (kindComponents.length > 2) {
+                confidence = Double.parseDouble(kindComponents[2]);
+            }
+        } catch (NumberFormatException e) {
+            throw new RequestParsingException("Invalid number format in approximate computation kind");
+        }
+        String exactKind = kindComponents[0].substring(0, kindComponents[0].length() - "_APPROX".length());
+        ComputationRequest computationRequest = parseComputationRequest(exactKind + ";" + components[1], new HashMap<>(), new HashMap<>());
+        return new ApproximateRequest(computationRequest, relativeError, confidence);
+    }
+
+    /**
+     * Looks up the parsed form of a handle among the handles of the connection or the global ones.
+     *
+     * @param handle            The handle, without the leading '@'.
+     * @param connectionHandles The handles prepared by the connection.
+     * @param globalHandles     The handles prepared globally.
+     * @return The parsed form of the handle.
+     * @throws RequestParsingException If the handle is unknown or has been evicted.
+     */
+    private static <T> T resolveHandle(String handle, PreparedHandles<T> connectionHandles, PreparedHandles<T> globalHandles) throws RequestParsingException {
+        T parsed = (globalHandles.issued(handle) ? globalHandles : connectionHandles).get(handle);
+        if (parsed == null) {
+            throw new RequestParsingException("Unknown handle " + HANDLE_PREFIX + handle);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the items of a batch request, of the form "BATCH|request|request|...".
+     * Variable values and expressions that appear more than once in the batch are parsed only once and shared
+     * by the items reusing them; the variable ranges are still generated by each item when it is computed.
+     * An item that cannot be parsed does not invalidate the whole batch: its error is kept and reported in its slot.
+     *
+     * @param rawItems The batch content following the "BATCH|" prefix.
+     * @return The parsed BatchRequest object.
+     * @throws RequestParsingException If the batch does not contain any item.
+     */
+    private BatchRequest parseBatchRequest(String rawItems) throws RequestParsingException {
+        String[] items = rawItems.split("\\|");
+        if (rawItems.isBlank() || items.length == 0) {
+            throw new RequestParsingException("Empty BATCH request");
+        }
+
+        Map<String, VariableValues> variableValuesCache = new HashMap<>();
+        Map<String, Expression> expressionsCache = new HashMap<>();
+        List<ComputationRequest> requests = new ArrayList<>(items.length);
+        List<String> errors = new ArrayList<>(items.length);
+        for (String item : items) {
+            String rawItem = item.trim();
+            try {
+                if (!rawItem.matches(COMPUTATION_REQUEST_PATTERN)) {
+                    throw new RequestParsingException("Invalid request format in BATCH item");
+                }
+                requests.add(parseComputationRequest(rawItem, variableValuesCache, expressionsCache));
+                errors.add(null);
+            } catch (Exception e) {
+                requests.add(null);
+                errors.add(e.getMessage());
+            }
+        }
+        return new BatchRequest(requests, errors);
+    }
+
+    /**
+     * Parses a raw computation request, reusing the already parsed variable values and expressions
+     * found in the given caches.
+     *
+     * @param rawRequest          The raw computation request string.
+     * @param variableValuesCache The variable values already parsed, indexed by their textual form.
+     * @param expressionsCache    The expressions already parsed, indexed by their textual form.
+     * @return The parsed ComputationRequest object.
+     */
+    private ComputationRequest parseComputationRequest(String rawRequest, Map<String, VariableValues> variableValuesCache, Map<String, Expression> expressionsCache) {
+        String[] components = rawRequest.split(";",3);
+        if (components.length < 3) {
+            throw new IllegalArgumentException("Invalid ComputationRequest format");
+        }
+        String computationType = components[0];
+        List<VariableValues> variableValues = parseVariableValues(components[1], variableValuesCache);
+        List<Expression> expressions = parseExpressions(components[2], expressionsCache);
+
+        return new ComputationRequest(computationType, variableValues, expressions);
+    }
+
     /**
      * Parses the variable values string and constructs a list of VariableValues objects.
+     * A component of the form "@handle" stands for the variable values prepared under the handle.
      *
      * @param variableValuesString The variable values string.
+     * @param cache                The variable values already parsed, indexed by their textual form.
      * @return The list of VariableValues objects.
      * @throws VariableValuesParsingException If there is an error in parsing variable values.
      */
-    private List<VariableValues> parseVariableValues(String variableValuesString) throws VariableValuesException {
+    private List<VariableValues> parseVariableValues(String variableValuesString, Map<String, VariableValues> cache) throws VariableValuesException {
         String[] components = variableValuesString.split(",");
         List<VariableValues> variableValuesList = new ArrayList<>();
 
         for (String component : components) {
+            if (component.startsWith(HANDLE_PREFIX)) {
+                variableValuesList.addAll(resolveHandle(component.substring(HANDLE_PREFIX.length()), variableValuesHandles, globalVariableValuesHandles));
+                continue;
+            }
+            VariableValues cached = cache.get(component);
+            if (cached != null) {
+                variableValuesList.add(cached);
+                continue;
+            }
             String[] subComponents = component.split(":");
             if (subComponents.length != 4) {
                 throw new VariableValuesParsingException("VariableValues should be of the form VarName:JavaNum:JavaNum:JavaNum");
@@ -78,27 +327,42 @@ public final class RequestParser {
                 throw new VariableValuesParsingException("Invalid number format in VariableValues");
             }
 
-            variableValuesList.add(new VariableValues(variableName, lower, step, upper));
+            VariableValues variableValues = new VariableValues(variableName, lower, step, upper);
+            cache.put(component, variableValues);
+            variableValuesList.add(variableValues);
         }
         return variableValuesList;
     }
 
     /**
      * Parses the expressions string and constructs a list of Expression objects.
+     * A component of the form "@handle" stands for the expressions prepared under the handle.
      *
      * @param expressionsString The expressions string.
+     * @param cache             The expressions already parsed, indexed by their textual form.
      * @return The list of Expression objects.
      * @throws ExpressionParsingException If there is an error in parsing expressions.
      */
-    private List<Expression> parseExpressions(String expressionsString) throws ExpressionParsingException {
+    private List<Expression> parseExpressions(String expressionsString, Map<String, Expression> cache) throws ExpressionParsingException {
         String[] components = expressionsString.split(";");
         List<Expression> expressionsList = new ArrayList<>();
 
         for (String component : components) {
+            if (component.startsWith(HANDLE_PREFIX)) {
+                expressionsList.addAll(resolveHandle(component.substring(HANDLE_PREFIX.length()), expressionsHandles, globalExpressionsHandles));
+                continue;
+            }
+            Expression cached = cache.get(component);
+            if (cached != null) {
+                expressionsList.add(cached);
+                continue;
+            }
             Parser parser = new Parser(component);
             try {
                 Node root = parser.parse();
-                expressionsList.add(new Expression(root));
+                Expression expression = new Expression(root);
+                cache.put(component, expression);
+                expressionsList.add(expression);
             } catch (Exception e) {
                 throw new ExpressionParsingException("Failed to parse expression: " + component, e);
             }
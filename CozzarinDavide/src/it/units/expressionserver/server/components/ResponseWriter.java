@@ -0,0 +1,134 @@
+package it.units.expressionserver.server.components;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the responses of a connection through a reused buffer, coalescing the responses to pipelined requests
+ * in a single socket write. The buffer is flushed as soon as the client has no more requests waiting to be read,
+ * and once a short delay from the first buffered response has passed, so that a burst of requests costs
+ * a few writes and packets while a single request is still answered right away.
+ * All the writes happen on the thread of the connection: the delay is checked when a response is written
+ * and through flushIfDue, which the connection calls before processing each request, and the connection flushes
+ * the held back responses before blocking to read a request, so a slow client only ever blocks its own thread
+ * and never delays its responses.
+ * Responses are encoded as UTF-8, with a fast path for the ASCII characters they are usually made of.
+ */
+public class ResponseWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final long MAX_FLUSH_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(1000);
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private boolean holding;
+    private long holdingSince;
+
+    /**
+     * Constructs a new ResponseWriter instance.
+     *
+     * @param output The output stream of the connection.
+     */
+    public ResponseWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Writes a response followed by a line terminator.
+     *
+     * @param response         The response to write.
+     * @param moreInputPending Whether the client has already sent more requests, in which case the response
+     *                         may be held back to be written together with the next ones, within the flush delay.
+     * @throws IOException If the response cannot be written.
+     */
+    public synchronized void writeResponse(String response, boolean moreInputPending) throws IOException {
+        int length = response.length();
+        for (int i = 0; i < length; i++) {
+            char c = response.charAt(i);
+            if (c >= 0x80) {
+                writeEncoded(response.substring(i));
+                break;
+            }
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) c;
+        }
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = '\n';
+
+        if (!moreInputPending) {
+            flush();
+        } else if (!holding) {
+            holding = true;
+            holdingSince = System.nanoTime();
+        } else {
+            flushIfDue();
+        }
+    }
+
+    /**
+     * Writes the held back responses to the connection if the first of them has been waiting for longer than the flush delay.
+     *
+     * @throws IOException If the responses cannot be written.
+     */
+    public synchronized void flushIfDue() throws IOException {
+        if (holding && System.nanoTime() - holdingSince >= MAX_FLUSH_DELAY_NANOS) {
+            flush();
+        }
+    }
+
+    /**
+     * Tells whether responses are held back, waiting to be written with the next ones.
+     *
+     * @return Whether a flush is needed to write the buffered responses.
+     */
+    public synchronized boolean isHolding() {
+        return holding;
+    }
+
+    /**
+     * Writes the buffered responses to the connection.
+     *
+     * @throws IOException If the responses cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        holding = false;
+        flushBuffer();
+        output.flush();
+    }
+
+    /**
+     * Writes the buffered responses to the connection. The connection itself is closed by its owner.
+     *
+     * @throws IOException If the responses cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void writeEncoded(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.length - count) {
+            flushBuffer();
+        }
+        if (bytes.length > buffer.length) {
+            output.write(bytes);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            output.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
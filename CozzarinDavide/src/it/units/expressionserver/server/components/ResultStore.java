@@ -0,0 +1,218 @@
+package it.units.expressionserver.server.components;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store of computation results, keyed by the canonical form of the computation requests,
+ * which keeps the results of the recurring requests available across restarts.
+ * The results are kept in an append-only log, memory-mapped with a fixed capacity, made of records of the form
+ * [key length][key][result length][result], preceded by a header holding the end of the last record.
+ * The in-memory index maps each key to the offset of its record and is rebuilt by scanning the log when the store is opened.
+ * When the log is full it is compacted, dropping the records no longer indexed, and the least recently used
+ * results are evicted if the live ones alone fill more than half of the capacity.
+ */
+public class ResultStore implements AutoCloseable {
+    private static final String LOG_FILE_NAME = "results.log";
+    private static final int MAGIC = 0x45585052;
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int END_OFFSET_POSITION = Integer.BYTES;
+
+    private final Path logPath;
+    private final int capacity;
+    private final LinkedHashMap<String, Integer> index = new LinkedHashMap<>(16, 0.75f, true);
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private int end;
+    private long liveBytes;
+
+    private ResultStore(Path logPath, int capacity) {
+        this.logPath = logPath;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens the result store in the given directory, creating it if it does not exist yet,
+     * and loads the index of the results already in the log.
+     *
+     * @param directory The directory of the store.
+     * @param capacity  The maximum size of the log, in bytes.
+     * @return The opened ResultStore.
+     * @throws IOException If the log cannot be opened or is corrupted.
+     */
+    public static ResultStore open(Path directory, int capacity) throws IOException {
+        Files.createDirectories(directory);
+        ResultStore resultStore = new ResultStore(directory.resolve(LOG_FILE_NAME), capacity);
+        resultStore.map();
+        resultStore.loadIndex();
+        return resultStore;
+    }
+
+    /**
+     * Looks up the result of a request.
+     *
+     * @param key The canonical form of the request.
+     * @return The stored result, or null if the store does not hold it.
+     */
+    public synchronized String get(String key) {
+        Integer offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        int keyLength = log.getInt(offset);
+        int resultOffset = offset + Integer.BYTES + keyLength;
+        return readString(resultOffset + Integer.BYTES, log.getInt(resultOffset));
+    }
+
+    /**
+     * Stores the result of a request, compacting the log if there is no room left for it.
+     * Results larger than half of the capacity are not stored.
+     *
+     * @param key    The canonical form of the request.
+     * @param result The result of the request.
+     */
+    public synchronized void put(String key, String result) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+        int recordSize = recordSize(keyBytes.length, resultBytes.length);
+        if (recordSize > (capacity - HEADER_SIZE) / 2) {
+            return;
+        }
+        try {
+            if (end + recordSize > capacity) {
+                compact((capacity - HEADER_SIZE) / 2 - recordSize);
+            }
+        } catch (IOException e) {
+            AsyncLogger.warn("Unable to compact the result store: %s", e);
+            return;
+        }
+        Integer previousOffset = index.put(key, end);
+        if (previousOffset != null) {
+            liveBytes -= recordSizeAt(previousOffset);
+        }
+        end = writeRecord(log, end, keyBytes, resultBytes);
+        liveBytes += recordSize;
+        log.putLong(END_OFFSET_POSITION, end);
+    }
+
+    /**
+     * Flushes the log to disk and closes it.
+     *
+     * @throws IOException If the log cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        log.force();
+        channel.close();
+    }
+
+    /**
+     * Rewrites the log with the indexed records only, evicting the least recently used ones
+     * until the live records fit in the given number of bytes.
+     */
+    private void compact(long maxLiveBytes) throws IOException {
+        Iterator<Map.Entry<String, Integer>> iterator = index.entrySet().iterator();
+        while (liveBytes > maxLiveBytes && iterator.hasNext()) {
+            liveBytes -= recordSizeAt(iterator.next().getValue());
+            iterator.remove();
+        }
+
+        Path compactedPath = logPath.resolveSibling(LOG_FILE_NAME + ".compacting");
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(index.entrySet());
+        try (FileChannel compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer compacted = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            compacted.putInt(0, MAGIC);
+            int compactedEnd = HEADER_SIZE;
+            for (Map.Entry<String, Integer> entry : entries) {
+                int offset = entry.getValue();
+                int size = recordSizeAt(offset);
+                compacted.put(compactedEnd, log, offset, size);
+                entry.setValue(compactedEnd);
+                compactedEnd += size;
+            }
+            compacted.putLong(END_OFFSET_POSITION, compactedEnd);
+            compacted.force();
+        }
+        channel.close();
+        Files.move(compactedPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+        end = (int) log.getLong(END_OFFSET_POSITION);
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+        if (created) {
+            log.putInt(0, MAGIC);
+            log.putLong(END_OFFSET_POSITION, HEADER_SIZE);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        if (log.getInt(0) != MAGIC) {
+            throw new IOException("Not a result store log: " + logPath);
+        }
+        long storedEnd = log.getLong(END_OFFSET_POSITION);
+        if (storedEnd < HEADER_SIZE || storedEnd > log.capacity()) {
+            throw new IOException("Corrupted result store log: " + logPath);
+        }
+        end = (int) storedEnd;
+        int offset = HEADER_SIZE;
+        try {
+            while (offset < end) {
+                int keyLength = log.getInt(offset);
+                String key = readString(offset + Integer.BYTES, keyLength);
+                Integer previousOffset = index.put(key, offset);
+                if (previousOffset != null) {
+                    liveBytes -= recordSizeAt(previousOffset);
+                }
+                int size = recordSizeAt(offset);
+                liveBytes += size;
+                offset += size;
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted result store log: " + logPath, e);
+        }
+        if (end > capacity) {
+            compact((capacity - HEADER_SIZE) / 2);
+        }
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        log.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int recordSizeAt(int offset) {
+        int keyLength = log.getInt(offset);
+        int resultLength = log.getInt(offset + Integer.BYTES + keyLength);
+        return recordSize(keyLength, resultLength);
+    }
+
+    private static int recordSize(int keyLength, int resultLength) {
+        return Integer.BYTES + keyLength + Integer.BYTES + resultLength;
+    }
+
+    private static int writeRecord(ByteBuffer buffer, int offset, byte[] keyBytes, byte[] resultBytes) {
+        buffer.putInt(offset, keyBytes.length);
+        buffer.put(offset + Integer.BYTES, keyBytes);
+        int resultOffset = offset + Integer.BYTES + keyBytes.length;
+        buffer.putInt(resultOffset, resultBytes.length);
+        buffer.put(resultOffset + Integer.BYTES, resultBytes);
+        return resultOffset + Integer.BYTES + resultBytes.length;
+    }
+}
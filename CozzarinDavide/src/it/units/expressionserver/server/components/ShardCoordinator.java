@@ -0,0 +1,185 @@
+package it.units.expressionserver.server.components;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.domain.request.ShardRequest;
+import it.units.expressionserver.exceptions.ProcessException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the tuple space of large computation requests in shards and has them evaluated by a set of peer servers
+ * through SHARD requests, merging the partial aggregates they return.
+ * A shard whose peer is unreachable, too slow or failing is reassigned to the next peer, and it is evaluated
+ * locally, through the ComputationScheduler, when no peer is able to evaluate it.
+ */
+public class ShardCoordinator {
+    private static final long MIN_DISTRIBUTED_TUPLES = 100_000;
+    private static final int SHARDS_PER_PEER = 4;
+    private static final String QUIT_COMMAND = "BYE";
+
+    private final List<InetSocketAddress> peers;
+    private final int shardTimeoutMillis;
+    private final ExecutorService executorService;
+
+    /**
+     * Constructs a new ShardCoordinator instance.
+     *
+     * @param peers              The addresses of the peer servers.
+     * @param shardTimeoutMillis The time a peer is given to connect and to evaluate a shard before it is reassigned.
+     */
+    public ShardCoordinator(List<InetSocketAddress> peers, int shardTimeoutMillis) {
+        this.peers = peers;
+        this.shardTimeoutMillis = shardTimeoutMillis;
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Tells whether a computation over the given number of tuples is large enough to be worth distributing.
+     *
+     * @param tuples The number of tuples of the computation.
+     * @return True if the computation should be split in shards.
+     */
+    public boolean shouldDistribute(long tuples) {
+        return !peers.isEmpty() && tuples >= MIN_DISTRIBUTED_TUPLES;
+    }
+
+    /**
+     * Counts the shards a distributed computation is split in.
+     *
+     * @param tuples The number of tuples of the computation.
+     * @return The number of shards.
+     */
+    public int countShards(long tuples) {
+        return (int) Math.min(tuples, (long) peers.size() * SHARDS_PER_PEER);
+    }
+
+    /**
+     * Evaluates the expressions of the request on its whole tuple space, shard by shard on the peers.
+     * The peers are only contacted by the threads of the coordinator, which never read the tuple space:
+     * the shards no peer has been able to evaluate are evaluated afterwards by the ComputationScheduler,
+     * on behalf of the owner, so that they are subject to the same fair sharing as the other computations.
+     * The method returns only once every shard request has completed, and fails if any of them failed.
+     *
+     * @param request              The computation request.
+     * @param tupleSpace           The tuple space of the request.
+     * @param computationScheduler The scheduler evaluating the shards no peer has been able to evaluate.
+     * @param owner                The connection the computation is scheduled on behalf of.
+     * @return The merged aggregate of all the shards.
+     * @throws ProcessException If the evaluation of a shard fails.
+     */
+    public Aggregate evaluate(ComputationRequest request, TupleSpace tupleSpace, ComputationScheduler computationScheduler, Object owner) throws ProcessException {
+        String canonicalRequest = request.toCanonicalString();
+        long size = tupleSpace.size();
+        int shardCount = countShards(size);
+        long shardSize = size / shardCount;
+        long remainder = size % shardCount;
+
+        long[] froms = new long[shardCount];
+        long[] tos = new long[shardCount];
+        List<Future<Aggregate>> futures = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int shardIndex = shard;
+            froms[shard] = shard * shardSize + Math.min(shard, remainder);
+            tos[shard] = froms[shard] + shardSize + (shard < remainder ? 1 : 0);
+            String rawShardRequest = ShardRequest.toRawRequest(froms[shard], tos[shard], canonicalRequest);
+            futures.add(executorService.submit(() -> requestShardFromPeers(shardIndex, rawShardRequest)));
+        }
+
+        Aggregate[] partials = new Aggregate[shardCount];
+        Throwable failure = null;
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                partials[shard] = futures.get(shard).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new ProcessException("Interrupted while waiting for the shards", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (failure != null) {
+            throw new ProcessException("Failed to evaluate shard: " + failure.getMessage(), failure);
+        }
+
+        Aggregate aggregate = request.createAggregate();
+        for (int shard = 0; shard < shardCount; shard++) {
+            aggregate.merge(partials[shard] != null
+                    ? partials[shard]
+                    : request.evaluate(computationScheduler, owner, tupleSpace, froms[shard], tos[shard]));
+        }
+        return aggregate;
+    }
+
+    /**
+     * Sends a shard request to each peer in turn, starting from the one the shard is assigned to,
+     * until one of them evaluates it.
+     *
+     * @return The partial aggregate of the shard, or null if no peer has been able to evaluate it.
+     */
+    private Aggregate requestShardFromPeers(int shard, String rawShardRequest) {
+        for (int attempt = 0; attempt < peers.size(); attempt++) {
+            InetSocketAddress peer = peers.get((shard + attempt) % peers.size());
+            try {
+                return requestShard(peer, rawShardRequest);
+            } catch (IOException | ProcessException e) {
+                AsyncLogger.warn("Peer %s failed on shard %d, reassigning it: %s", peer, shard, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends a shard request to a peer and waits for its partial aggregate.
+     *
+     * @throws IOException      If the peer cannot be reached or does not answer in time.
+     * @throws ProcessException If the peer answers with an error.
+     */
+    private Aggregate requestShard(InetSocketAddress peer, String rawShardRequest) throws IOException, ProcessException {
+        try (Socket socket = new Socket()) {
+            socket.connect(peer, shardTimeoutMillis);
+            socket.setSoTimeout(shardTimeoutMillis);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+
+            writer.println(rawShardRequest);
+            String response = reader.readLine();
+            writer.println(QUIT_COMMAND);
+            if (response == null) {
+                throw new IOException("Connection closed by peer");
+            }
+            if (!response.startsWith("OK;")) {
+                throw new ProcessException(response);
+            }
+            try {
+                return Aggregate.decode(response.substring(response.lastIndexOf(';') + 1));
+            } catch (IllegalArgumentException e) {
+                throw new ProcessException("Malformed shard response: " + response, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package it.units.expressionserver.server.components;
+
+import it.units.expressionserver.exceptions.ProcessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces identical computations running at the same time: the first caller of a key computes the result,
+ * while the callers of the same key arriving before it completes wait for it and share its result, or its failure.
+ * Once the computation completes the key is forgotten, so a later caller computes the result again.
+ */
+public class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * A computation of a result, which may fail with a ProcessException.
+     */
+    @FunctionalInterface
+    public interface Computation {
+        String compute() throws ProcessException;
+    }
+
+    /**
+     * Computes the result of the given key, or waits for the computation of the same key already running.
+     *
+     * @param key         The key identifying the computation, such as the canonical form of a request.
+     * @param computation The computation, invoked only if no computation of the key is running.
+     * @return The result of the computation.
+     * @throws ProcessException If the computation fails, or the wait is interrupted.
+     */
+    public String compute(String key, Computation computation) throws ProcessException {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            String result = computation.compute();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // Errors included, so that the waiting callers never wait for a future left incomplete
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the number of computations currently running.
+     *
+     * @return The number of distinct keys being computed.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    private static String await(CompletableFuture<String> running) throws ProcessException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while waiting for an identical computation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ProcessException processException) {
+                throw new ProcessException(processException.getMessage(), processException);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new ProcessException(cause.getMessage(), cause);
+        }
+    }
+}
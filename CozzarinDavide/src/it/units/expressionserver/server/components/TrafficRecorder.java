@@ -0,0 +1,186 @@
+package it.units.expressionserver.server.components;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw request lines received by the server, so that the traffic can be replayed later.
+ * The capture is an append-only file of records of the form [nanoseconds since the capture start][connection id]
+ * [line length][line]. The connection handlers only put the records in a bounded queue, without blocking;
+ * a background thread takes them from the queue and accumulates them in a direct buffer, written with a single
+ * channel write when the buffer is full, at least every second, and when the recorder is closed.
+ * A line too long for the buffer is written on its own, and the records that do not fit in the queue are dropped
+ * and counted, the number of dropped records being logged by the background thread.
+ */
+public class TrafficRecorder implements AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final Record CLOSE_SIGNAL = new Record(0, 0, new byte[0]);
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final BlockingQueue<Record> records = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger nextConnectionId = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    private final Thread writer;
+    private volatile boolean closing;
+    private long reportedDropped;
+    private long lastFlushTime = System.currentTimeMillis();
+
+    private record Record(long time, int connectionId, byte[] line) {
+    }
+
+    /**
+     * Constructs a new TrafficRecorder instance appending to the given capture file.
+     *
+     * @param capturePath The path of the capture file.
+     * @throws IOException If the capture file cannot be opened.
+     */
+    public TrafficRecorder(Path capturePath) throws IOException {
+        this.channel = FileChannel.open(capturePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = new Thread(this::writeContinuously, "traffic-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return A new identifier for a client connection.
+     */
+    public int newConnectionId() {
+        return nextConnectionId.incrementAndGet();
+    }
+
+    /**
+     * Records a raw request line received on a connection, without waiting for it to be written.
+     *
+     * @param connectionId The identifier of the connection.
+     * @param line         The raw request line.
+     */
+    public void record(int connectionId, String line) {
+        Record record = new Record(System.nanoTime() - startTime, connectionId, line.getBytes(StandardCharsets.UTF_8));
+        if (closing || !records.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of records dropped so far because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the queued records and closes the capture file.
+     *
+     * @throws IOException If the capture file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        records.offer(CLOSE_SIGNAL);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the request lines of a capture file, in order of arrival, leaving out the quit commands.
+     *
+     * @param capturePath The path of the capture file.
+     * @param quitCommand The command a client sends to disconnect.
+     * @return The captured request lines.
+     * @throws IOException If the capture file cannot be read.
+     */
+    public static List<String> readRequestLines(Path capturePath, String quitCommand) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (FileChannel captureChannel = FileChannel.open(capturePath, StandardOpenOption.READ)) {
+            ByteBuffer capture = captureChannel.map(FileChannel.MapMode.READ_ONLY, 0, captureChannel.size());
+            while (capture.remaining() >= RECORD_HEADER_SIZE) {
+                capture.position(capture.position() + Long.BYTES + Integer.BYTES);
+                byte[] bytes = new byte[capture.getInt()];
+                capture.get(bytes);
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if (!line.equals(quitCommand)) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void writeContinuously() {
+        try {
+            while (!closing || !records.isEmpty()) {
+                Record record = records.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                while (record != null) {
+                    if (record != CLOSE_SIGNAL) {
+                        write(record);
+                    }
+                    record = records.poll();
+                }
+                if (System.currentTimeMillis() - lastFlushTime >= FLUSH_INTERVAL_MILLIS || closing) {
+                    flush();
+                }
+                reportDropped();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            AsyncLogger.warn("Unable to write the traffic capture: %s", e);
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int size = RECORD_HEADER_SIZE + record.line().length;
+        if (buffer.remaining() < size) {
+            flush();
+        }
+        ByteBuffer target = size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+        target.putLong(record.time());
+        target.putInt(record.connectionId());
+        target.putInt(record.line().length);
+        target.put(record.line());
+        if (target != buffer) {
+            target.flip();
+            while (target.hasRemaining()) {
+                channel.write(target);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    private void reportDropped() {
+        long droppedSoFar = dropped.get();
+        if (droppedSoFar != reportedDropped) {
+            AsyncLogger.warn("Dropped %d traffic capture records, the queue was full", droppedSoFar - reportedDropped);
+            reportedDropped = droppedSoFar;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package it.units.expressionserver.server.components;
+
+import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.server.Server;
+
+import java.util.List;
+
+/**
+ * Warm-up phase run before the server accepts connections, so that the request parsing and processing paths
+ * are compiled by the JIT before the first client arrives.
+ * The workload is pushed through a RequestParser and Request.process round after round, on a scratch server sharing
+ * the threads, the ComputationScheduler and the ColumnAllocator of the real one, but whose statistics and prepared handles
+ * are thrown away, until the duration of a round stabilizes or the time budget runs out.
+ */
+public class Warmup {
+    private static final int MIN_ROUNDS = 10;
+    private static final int STABLE_ROUNDS = 5;
+    private static final double STABILITY_TOLERANCE = 0.05;
+    private static final long MAX_DURATION_NANOS = 60_000_000_000L;
+
+    private static final List<String> SYNTHETIC_WORKLOAD = List.of(
+            "MIN_GRID;x:-1:0.1:1,y:-10:1:20;((x+(2.0^y))/(1-x))",
+            "MAX_GRID;x:0:0.05:1,y:0:0.05:1,z:0:0.5:2;(((x*y)-z)^2)",
+            "AVG_GRID;a:0:0.01:1,b:0:0.1:2;((a*b)-(b/(a+1)));(a+b)",
+            "COUNT_GRID;x:0:1:99,y:0:1:99;x",
+            "SUM_LIST;x:0:1:999,y:1:1:1000;((x*2)+y)",
+            "STDDEV_LIST;x:0:0.001:1;(x^0.5)",
+            "MEDIAN_GRID;x:0:0.02:1,y:0:0.02:1;(x+y)",
+            "P95_LIST;x:0:0.001:1;(x*x)",
+            "BATCH|MIN_LIST;x:0:1:9;(x-1)|MAX_LIST;x:0:1:9;(x+1)|AVG_GRID;x:0:1:9,y:0:1:9;(x*y)",
+            "MAX_GRID;x:0:1:3;(x+z)",
+            "AVG_GRID;x:0:1:3;(x+",
+            "STAT_REQS",
+            "STAT_AVG_TIME",
+            "STAT_MAX_TIME");
+
+    private final List<String> workload;
+
+    /**
+     * Constructs a new Warmup instance running the given workload.
+     *
+     * @param workload The raw request lines of the workload.
+     */
+    public Warmup(List<String> workload) {
+        this.workload = workload.isEmpty() ? SYNTHETIC_WORKLOAD : workload;
+    }
+
+    /**
+     * @return A Warmup instance running a synthetic workload covering all the request kinds.
+     */
+    public static Warmup synthetic() {
+        return new Warmup(SYNTHETIC_WORKLOAD);
+    }
+
+    /**
+     * Runs the workload until the duration of a round stays within the tolerance of the previous one
+     * for several consecutive rounds, or until the time budget runs out.
+     *
+     * @param server The server to warm up, whose components the workload is processed with.
+     * @return The number of rounds run.
+     */
+    public int run(Server server) {
+        Server scratchServer = server.newScratchServer();
+        RequestParser requestParser = new RequestParser();
+        long warmupStart = System.nanoTime();
+        long previousRoundTime = Long.MAX_VALUE;
+        int stableRounds = 0;
+        int rounds = 0;
+        while (System.nanoTime() - warmupStart < MAX_DURATION_NANOS) {
+            long roundStart = System.nanoTime();
+            for (String line : workload) {
+                try {
+                    Request request = requestParser.parseRequest(line);
+                    request.process(scratchServer, System.nanoTime());
+                } catch (Exception e) {
+                    // errors are part of the workload, their paths have to be warmed up too
+                }
+            }
+            long roundTime = System.nanoTime() - roundStart;
+            rounds++;
+            if (Math.abs(roundTime - previousRoundTime) <= STABILITY_TOLERANCE * previousRoundTime) {
+                stableRounds++;
+            } else {
+                stableRounds = 0;
+            }
+            previousRoundTime = roundTime;
+            if (rounds >= MIN_ROUNDS && stableRounds >= STABLE_ROUNDS) {
+                break;
+            }
+        }
+        return rounds;
+    }
+}
@@ -0,0 +1,31 @@
+package it.units.expressionserver.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning a client connection, from its accept by the Server to its close by the ClientHandler.
+ */
+@Name("it.units.expressionserver.Connection")
+@Label("Connection")
+@Category({"Expression Server", "Connections"})
+@Description("A client connection, from its accept to its close")
+public class ConnectionEvent extends Event {
+    @Label("Remote Address")
+    private String remoteAddress;
+
+    @Label("Requests")
+    @Description("The number of requests served on the connection")
+    private long requests;
+
+    public void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    public void setRequests(long requests) {
+        this.requests = requests;
+    }
+}
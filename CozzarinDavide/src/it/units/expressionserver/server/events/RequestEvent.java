@@ -0,0 +1,100 @@
+package it.units.expressionserver.server.events;
+
+import it.units.expressionserver.domain.request.ApproximateRequest;
+import it.units.expressionserver.domain.request.BatchRequest;
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.domain.request.ExplainRequest;
+import it.units.expressionserver.domain.request.ProfileRequest;
+import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.domain.request.ShardRequest;
+import it.units.expressionserver.domain.request.StreamRequest;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Flight Recorder event about a request, describing its type and the size of its computation, so that
+ * the time and the allocations of the requests can be attributed to their kinds.
+ * The fields are meant to be filled only when the event is going to be committed, since describing
+ * a computation counts its tuples. The fields are protected, since Flight Recorder records only the fields
+ * the concrete events inherit.
+ */
+public abstract class RequestEvent extends Event {
+    @Label("Request Type")
+    @Description("The type of the request, such as Computation, Batch or Stream")
+    protected String requestType;
+
+    @Label("Computation Kind")
+    @Description("The computation kind of the request, such as MIN_GRID, or BATCH for a batch")
+    protected String computationKind;
+
+    @Label("Tuples")
+    @Description("The number of tuples of the computation, summed over the items of a batch")
+    protected long tuples;
+
+    @Label("Expressions")
+    @Description("The number of expressions of the computation, summed over the items of a batch")
+    protected int expressions;
+
+    @Label("Succeeded")
+    protected boolean succeeded;
+
+    /**
+     * Fills the fields describing the given request.
+     *
+     * @param request The request, possibly wrapping a computation request.
+     */
+    public void setRequest(Request request) {
+        String className = request.getClass().getSimpleName();
+        requestType = className.endsWith("Request") ? className.substring(0, className.length() - "Request".length()) : className;
+        if (request instanceof BatchRequest batchRequest) {
+            computationKind = "BATCH";
+            for (ComputationRequest item : batchRequest.getRequests()) {
+                if (item != null) {
+                    tuples += countTuples(item);
+                    expressions += item.getExpressions().size();
+                }
+            }
+            return;
+        }
+        ComputationRequest computationRequest = computationRequestOf(request);
+        if (computationRequest != null) {
+            computationKind = computationRequest.getComputationKind();
+            tuples = countTuples(computationRequest);
+            expressions = computationRequest.getExpressions().size();
+        }
+    }
+
+    public void setSucceeded(boolean succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    private static ComputationRequest computationRequestOf(Request request) {
+        if (request instanceof ComputationRequest computationRequest) {
+            return computationRequest;
+        } else if (request instanceof StreamRequest streamRequest) {
+            return streamRequest.getComputationRequest();
+        } else if (request instanceof ApproximateRequest approximateRequest) {
+            return approximateRequest.getComputationRequest();
+        } else if (request instanceof ProfileRequest profileRequest) {
+            return profileRequest.getComputationRequest();
+        } else if (request instanceof ExplainRequest explainRequest) {
+            return explainRequest.getComputationRequest();
+        } else if (request instanceof ShardRequest shardRequest) {
+            return shardRequest.getComputationRequest();
+        }
+        return null;
+    }
+
+    /**
+     * Counts the tuples of a computation, or returns -1 if they cannot be counted, in which case
+     * the processing of the request fails as well.
+     */
+    private static long countTuples(ComputationRequest computationRequest) {
+        try {
+            return computationRequest.countTuples();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package it.units.expressionserver.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning the parsing of a request line by the RequestParser.
+ */
+@Name("it.units.expressionserver.RequestParse")
+@Label("Request Parse")
+@Category({"Expression Server", "Requests"})
+@Description("The parsing of a request line")
+public class RequestParseEvent extends RequestEvent {
+    @Label("Line Length")
+    @Description("The number of characters of the request line")
+    private long lineLength;
+
+    public void setLineLength(long lineLength) {
+        this.lineLength = lineLength;
+    }
+}
@@ -0,0 +1,16 @@
+package it.units.expressionserver.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning the processing of a parsed request, from the call to Request.process to its response.
+ */
+@Name("it.units.expressionserver.RequestProcess")
+@Label("Request Process")
+@Category({"Expression Server", "Requests"})
+@Description("The processing of a parsed request")
+public class RequestProcessEvent extends RequestEvent {
+}
@@ -0,0 +1,163 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.domain.request.ComputationPlan;
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.domain.request.Request;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.RequestParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Allocation and throughput regression check of the request hot paths.
+ * Each request of the baseline file is parsed by a RequestParser and processed on a scratch server, first to warm up
+ * the JIT and then measuring the bytes allocated per request by all the threads, through the thread allocation
+ * counters of the ThreadMXBean, and the time per tuple of the request.
+ * The baseline file holds, for each named request, the request line ("name.request") and the maximum bytes
+ * it may allocate ("name.maxBytesPerRequest"), optionally with the maximum time per tuple ("name.maxNanosPerTuple");
+ * the check exits with status 1 as soon as a request exceeds one of its thresholds.
+ * Without arguments, the baseline committed next to this class is used.
+ */
+public class AllocationBenchmark {
+    private static final String USAGE = "Usage: java -cp CozzarinDavide.jar it.units.expressionserver.tools.AllocationBenchmark [<baseline file>]";
+    private static final String BASELINE_RESOURCE = "allocation-baseline.properties";
+    private static final int WARMUP_ITERATIONS = 2_000;
+    private static final int MEASURED_ITERATIONS = 500;
+
+    private record Measurement(long bytesPerRequest, double nanosPerRequest, long tuples) {
+        private double nanosPerTuple() {
+            return tuples == 0 ? Double.NaN : nanosPerRequest / tuples;
+        }
+    }
+
+    /**
+     * The main method of the allocation check.
+     *
+     * @param args The optional path of the baseline file.
+     */
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(1);
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        Properties baseline;
+        try {
+            baseline = loadBaseline(args.length == 1 ? Path.of(args[0]) : null);
+        } catch (IOException e) {
+            System.err.println("Unable to read the baseline: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Server server = new Server(0);
+        RequestParser requestParser = new RequestParser();
+        List<String> names = baseline.stringPropertyNames().stream()
+                .filter(key -> key.endsWith(".request"))
+                .map(key -> key.substring(0, key.length() - ".request".length()))
+                .sorted()
+                .toList();
+        int regressions = 0;
+        for (String name : names) {
+            String line = baseline.getProperty(name + ".request");
+            Measurement measurement;
+            try {
+                measurement = measure(threadMXBean, server, requestParser, line);
+            } catch (Exception e) {
+                System.out.printf("%-24s FAILED: %s%n", name, e.getMessage());
+                regressions++;
+                continue;
+            }
+            long maxBytes = Long.parseLong(baseline.getProperty(name + ".maxBytesPerRequest", String.valueOf(Long.MAX_VALUE)));
+            double maxNanosPerTuple = Double.parseDouble(baseline.getProperty(name + ".maxNanosPerTuple", "Infinity"));
+            boolean regressed = measurement.bytesPerRequest() > maxBytes || measurement.nanosPerTuple() > maxNanosPerTuple;
+            System.out.printf(Locale.US, "%-24s %10d B/request (max %d)  %10.1f ns/request  %8.2f ns/tuple%s%n",
+                    name, measurement.bytesPerRequest(), maxBytes, measurement.nanosPerRequest(), measurement.nanosPerTuple(),
+                    regressed ? "  REGRESSION" : "");
+            if (regressed) {
+                regressions++;
+            }
+        }
+        if (regressions > 0) {
+            System.out.printf("%d of %d requests regressed%n", regressions, names.size());
+            System.exit(1);
+        }
+        System.out.printf("All %d requests within the baseline%n", names.size());
+    }
+
+    private static Properties loadBaseline(Path baselinePath) throws IOException {
+        Properties baseline = new Properties();
+        if (baselinePath != null) {
+            try (Reader reader = Files.newBufferedReader(baselinePath, StandardCharsets.UTF_8)) {
+                baseline.load(reader);
+            }
+            return baseline;
+        }
+        try (InputStream input = AllocationBenchmark.class.getResourceAsStream(BASELINE_RESOURCE)) {
+            if (input == null) {
+                throw new IOException("Missing resource " + BASELINE_RESOURCE);
+            }
+            baseline.load(input);
+        }
+        return baseline;
+    }
+
+    /**
+     * Runs a request line through the parser and the processing, warming up first.
+     *
+     * @return The bytes allocated and the time taken per request, and the tuples of the request, counted on its plan
+     * since that is what the server evaluates.
+     */
+    private static Measurement measure(com.sun.management.ThreadMXBean threadMXBean, Server server, RequestParser requestParser, String line) throws Exception {
+        long tuples = 0;
+        if (requestParser.parseRequest(line) instanceof ComputationRequest computationRequest) {
+            try (TupleSpace tupleSpace = ComputationPlan.of(computationRequest).getRequest().createTupleSpace(server.getColumnAllocator())) {
+                tuples = tupleSpace.size();
+            }
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run(server, requestParser, line);
+        }
+
+        long allocatedBefore = allocatedBytes(threadMXBean);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            run(server, requestParser, line);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threadMXBean) - allocatedBefore;
+        return new Measurement(allocated / MEASURED_ITERATIONS, (double) elapsed / MEASURED_ITERATIONS, tuples);
+    }
+
+    private static void run(Server server, RequestParser requestParser, String line) throws Exception {
+        Request request = requestParser.parseRequest(line);
+        request.process(server, System.nanoTime());
+    }
+
+    /**
+     * Sums the bytes allocated so far by all the live threads, so that the chunks evaluated by the workers
+     * of the ComputationScheduler are accounted for too.
+     */
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threadMXBean) {
+        return Arrays.stream(threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+}
@@ -0,0 +1,172 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.client.ExpressionClient;
+import it.units.expressionserver.client.Reply;
+import it.units.expressionserver.exceptions.ServerErrorException;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.AsyncLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Behavior check of the ExpressionClient round trip against a server started in this process.
+ * A mix of valid and invalid computation requests is sent both through compute, which gathers them into BATCH requests
+ * split back on "|", and one by one through send; each computed result, or error, must match the one of the request
+ * sent alone, the errors of some items must not affect the others, and the gathering must actually have happened,
+ * except for the request containing "|" itself, which compute must send apart.
+ * A streamed request must deliver its partial results to the consumer before its response,
+ * and a closed client must refuse new requests.
+ * The check exits with status 1 on the first unexpected outcome.
+ */
+public class ClientCheck {
+    private static final int ROUNDS = 50;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final List<String> REQUESTS = List.of(
+            "MIN_GRID;x:-1:0.1:1,y:-10:1:20;((x+(2.0^y))/(1-x))",
+            "MAX_LIST;x:0:1:9;(x+1)",
+            "AVG_GRID;a:0:0.01:1,b:0:0.1:2;((a*b)-(b/(a+1)));(a+b)",
+            "COUNT_GRID;x:0:1:99,y:0:1:99;x",
+            "MAX_GRID;x:0:1:3;(x+z)",
+            "AVG_GRID;x:0:1:3;(x+",
+            "MEDIAN_LIST;x:0:1:4;x",
+            "SUM_LIST;x:0:1:9,y:0:1:8;(x+y)",
+            "STAT_REQS|MAX_LIST;x:0:1:9;(x+1)");
+
+    /**
+     * The main method of the client check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        AsyncLogger.setLevel(AsyncLogger.Level.WARN);
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        Server server = new Server(port);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Unable to start the server: " + e.getMessage());
+            }
+        }, "client-check-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitServer(port);
+
+        boolean passed;
+        try {
+            ExpressionClient client = new ExpressionClient(new InetSocketAddress("localhost", port), 2, 16, 1000);
+            passed = checkBatches(client) & checkStream(client);
+            client.close();
+            passed &= checkClosed(client);
+        } finally {
+            server.getExecutorService().shutdown();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+        System.out.println("All client checks passed");
+    }
+
+    private static boolean checkBatches(ExpressionClient client) throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (String request : REQUESTS) {
+            expected.add(outcome(client.send(request).thenApply(Reply::result)));
+        }
+        long requestsBefore = client.getLatencyMetrics().getRequests();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String request : REQUESTS) {
+                results.add(client.compute(request));
+            }
+        }
+        int mismatches = 0;
+        for (int i = 0; i < results.size(); i++) {
+            String actual = outcome(results.get(i));
+            String wanted = expected.get(i % REQUESTS.size());
+            if (!Objects.equals(actual, wanted)) {
+                if (mismatches++ == 0) {
+                    System.out.printf("%-28s FAILED: %s computed as %s instead of %s%n", "batched computations",
+                            REQUESTS.get(i % REQUESTS.size()), actual, wanted);
+                }
+            }
+        }
+        long requestsSent = client.getLatencyMetrics().getRequests() - requestsBefore;
+        if (mismatches > 0) {
+            return false;
+        }
+        if (requestsSent >= results.size()) {
+            System.out.printf("%-28s FAILED: %d requests sent for %d computations%n", "batched computations", requestsSent, results.size());
+            return false;
+        }
+        System.out.printf("%-28s ok (%d computations in %d requests)%n", "batched computations", results.size(), requestsSent);
+        return true;
+    }
+
+    private static boolean checkStream(ExpressionClient client) throws Exception {
+        AtomicInteger partials = new AtomicInteger();
+        AtomicInteger partialsBeforeResponse = new AtomicInteger(-1);
+        CompletableFuture<Reply> reply = client.send("STREAM 10 AVG_GRID;x:-1:0.0005:1,y:-1:0.0005:1;(((x*y)-0.3)^2)", partial -> {
+            if (partial.startsWith("PARTIAL;")) {
+                partials.incrementAndGet();
+            }
+        });
+        String result = outcome(reply.whenComplete((r, e) -> partialsBeforeResponse.set(partials.get())).thenApply(Reply::result));
+        boolean passed = partialsBeforeResponse.get() > 0 && !result.startsWith("ERR");
+        System.out.printf("%-28s %s%n", "streamed request", passed ? "ok (" + partialsBeforeResponse.get() + " partial results)"
+                : "FAILED: " + partialsBeforeResponse.get() + " partial results, response " + result);
+        return passed;
+    }
+
+    private static boolean checkClosed(ExpressionClient client) throws Exception {
+        String result = outcome(client.send("MAX_LIST;x:0:1:9;(x+1)").thenApply(Reply::result));
+        boolean passed = result.startsWith("IOException");
+        System.out.printf("%-28s %s%n", "closed client", passed ? "ok" : "FAILED: " + result);
+        return passed;
+    }
+
+    /**
+     * Waits for a result and describes it: the result itself, the message of a server error, or the failure.
+     */
+    private static String outcome(CompletableFuture<String> result) throws InterruptedException {
+        try {
+            return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof ServerErrorException ? "ERR " + cause.getMessage() : cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        } catch (TimeoutException e) {
+            return "no response within " + TIMEOUT_SECONDS + " s";
+        }
+    }
+
+    private static void awaitServer(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            Socket socket;
+            try {
+                socket = new Socket("localhost", port);
+            } catch (IOException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(100);
+                continue;
+            }
+            socket.close();
+            return;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.domain.TupleSpace;
+import it.units.expressionserver.domain.request.ComputationPlan;
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.RequestParser;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Behavior check of the ComputationPlan.
+ * Each request is computed by a server, which evaluates its plan, and evaluated directly over its whole tuple space,
+ * without planning; the two results must agree, and the plan must apply an optimization exactly to the requests
+ * expected to be optimized, covering the pruning of unused variables, the reduction of monotone variables
+ * to their endpoints, and the requests the planner has to leave alone.
+ * The check exits with status 1 if any request fails.
+ */
+public class PlanCheck {
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    private record Case(String request, boolean optimized) {
+    }
+
+    private static final List<Case> CASES = List.of(
+            new Case("SUM_GRID;x:0:0.01:1,z:0:1:99;((x*x)-x)", true),
+            new Case("AVG_GRID;x:0:0.01:1,y:0:0.1:2,z:-5:1:5;(x*y)", true),
+            new Case("STDDEV_GRID;x:0:0.01:1,z:0:1:9;((x*2)+1)", true),
+            new Case("MIN_GRID;x:0:0.01:1,y:-1:0.01:1;((x+y)-(x*0.5))", true),
+            new Case("MAX_GRID;x:0:0.3:1,y:1:0.25:2;((x*3)/y)", true),
+            new Case("MIN_GRID;x:-1:0.01:1,y:0:0.1:1;((x^2)+y)", false),
+            new Case("MAX_GRID;x:-1:0.01:1,y:-1:0.01:1;((x*y)-(y^2))", false),
+            new Case("MIN_GRID;x:-1:0.5:1;(1/x)", false),
+            new Case("MAX_GRID;x:0.5:0.5:3;(x^x)", false),
+            new Case("MIN_GRID;x:0:1:3,x:0:1:3;x", true),
+            new Case("MIN_LIST;x:0:1:99,y:99:-1:0;(x+y)", false),
+            new Case("COUNT_GRID;x:0:1:99,y:0:1:99;x", false),
+            new Case("MAX_GRID;x:0:1:3,y:0:1:3;(x+z)", true));
+
+    /**
+     * The main method of the plan check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        Server server = new Server(0);
+        RequestParser requestParser = new RequestParser();
+        int failures = 0;
+        for (Case testCase : CASES) {
+            ComputationRequest request = (ComputationRequest) requestParser.parseRequest(testCase.request());
+            List<String> optimizations = ComputationPlan.of(request).getOptimizations();
+            String planned = planned(request, server);
+            String unplanned = unplanned(request, server);
+            String failure = null;
+            if (!matches(unplanned, planned)) {
+                failure = "planned " + planned + ", unplanned " + unplanned;
+            } else if (optimizations.isEmpty() == testCase.optimized()) {
+                failure = testCase.optimized() ? "not optimized" : "unexpectedly optimized";
+            }
+            System.out.printf("%-60s %-28s %s%n", testCase.request(), optimizations.isEmpty() ? "none" : String.join(",", optimizations),
+                    failure == null ? "ok" : "FAILED: " + failure);
+            if (failure != null) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.printf("%d failed requests%n", failures);
+            System.exit(1);
+        }
+        System.out.println("All planned results match the unplanned ones");
+    }
+
+    private static String planned(ComputationRequest request, Server server) {
+        try {
+            return request.compute(server);
+        } catch (Exception e) {
+            return "ERR: " + e.getMessage();
+        }
+    }
+
+    private static String unplanned(ComputationRequest request, Server server) {
+        try (TupleSpace tupleSpace = request.createTupleSpace(server.getColumnAllocator())) {
+            double result = request.getComputationKind().startsWith("COUNT")
+                    ? tupleSpace.size()
+                    : request.summarize(request.evaluate(tupleSpace, 0, tupleSpace.size()), 1);
+            return String.format(Locale.US, "%.6f", result);
+        } catch (Exception e) {
+            return "ERR: " + e.getMessage();
+        }
+    }
+
+    private static boolean matches(String expected, String actual) {
+        if (expected.equals(actual)) {
+            return true;
+        }
+        try {
+            double expectedValue = Double.parseDouble(expected);
+            double actualValue = Double.parseDouble(actual);
+            return Math.abs(expectedValue - actualValue) <= RELATIVE_TOLERANCE * Math.max(1, Math.abs(expectedValue));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.domain.Aggregate;
+import it.units.expressionserver.server.components.ComputationScheduler;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Behavior check of the ComputationScheduler.
+ * A computation whose chunks sum the indexes of their tuples is compared with the closed form, then computations whose
+ * evaluator throws an exception or an Error in one of their chunks must fail with it instead of hanging, and a last
+ * computation must still complete, showing that the workers survived the failures. A computation of far more chunks
+ * than an int can count, failing in its first one, must fail as promptly, its other chunks being dropped unevaluated.
+ * The check exits with status 1 on the first unexpected outcome.
+ */
+public class SchedulerCheck {
+    private static final int WORKERS = 2;
+    private static final long TUPLES = 1_000_000;
+    private static final long FAILING_TUPLE = TUPLES / 2;
+    private static final long HUGE_TUPLES = 1L << 50;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    /**
+     * The main method of the scheduler check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        ComputationScheduler computationScheduler = new ComputationScheduler(WORKERS);
+        ExecutorService submitter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scheduler-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean passed = checkSum(computationScheduler, submitter)
+                & checkFailure("failing chunk, IllegalStateException", computationScheduler, submitter, TUPLES, FAILING_TUPLE,
+                new IllegalStateException("chunk failure"))
+                & checkFailure("failing chunk, AssertionError", computationScheduler, submitter, TUPLES, FAILING_TUPLE,
+                new AssertionError("chunk error"))
+                & checkFailure("failing first chunk of 2^50 tuples", computationScheduler, submitter, HUGE_TUPLES, 0,
+                new IllegalStateException("chunk failure"))
+                & checkSum(computationScheduler, submitter);
+        if (!passed) {
+            System.exit(1);
+        }
+        System.out.println("All scheduler checks passed");
+    }
+
+    private static boolean checkSum(ComputationScheduler computationScheduler, ExecutorService submitter) throws Exception {
+        Future<Aggregate> result = submitter.submit(() -> computationScheduler.evaluate(new Object(), 0, TUPLES, 1, (from, to) -> {
+            Aggregate aggregate = new Aggregate();
+            for (long i = from; i < to; i++) {
+                aggregate.accept(i);
+            }
+            return aggregate;
+        }, new Aggregate()));
+        try {
+            double sum = result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getSum();
+            double expected = TUPLES * (TUPLES - 1) / 2.0;
+            boolean passed = sum == expected;
+            System.out.printf("%-38s %s%n", "sum of the tuple indexes", passed ? "ok" : "FAILED: expected " + expected + ", got " + sum);
+            return passed;
+        } catch (TimeoutException e) {
+            System.out.printf("%-38s FAILED: no result after %d s%n", "sum of the tuple indexes", TIMEOUT_SECONDS);
+            return false;
+        }
+    }
+
+    private static boolean checkFailure(String name, ComputationScheduler computationScheduler, ExecutorService submitter,
+                                        long tuples, long failingTuple, Throwable failure) throws Exception {
+        Future<Aggregate> result = submitter.submit(() -> computationScheduler.evaluate(new Object(), 0, tuples, 1, (from, to) -> {
+            if (from <= failingTuple && failingTuple < to) {
+                if (failure instanceof Error error) {
+                    throw error;
+                }
+                throw (RuntimeException) failure;
+            }
+            return new Aggregate();
+        }, new Aggregate()));
+        try {
+            result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            System.out.printf("%-38s FAILED: the computation succeeded%n", name);
+            return false;
+        } catch (TimeoutException e) {
+            System.out.printf("%-38s FAILED: the submitter is still waiting after %d s%n", name, TIMEOUT_SECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            boolean passed = e.getCause() == failure;
+            System.out.printf("%-38s %s%n", name, passed ? "ok" : "FAILED: unexpected failure " + e.getCause());
+            return passed;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.domain.response.Response;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.AsyncLogger;
+import it.units.expressionserver.server.components.RequestParser;
+import it.units.expressionserver.server.components.ShardCoordinator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Behavior check of the distributed computations on localhost.
+ * Two peer servers are started as separate processes, with the classpath of this tool, and a set of large
+ * computation requests is computed by a coordinating server in three setups: with both peers, with one peer
+ * and an unreachable address, so that its shards are reassigned, and with unreachable addresses only, so that
+ * all the shards are evaluated locally. Each result is compared with the one of a server without peers,
+ * and the check exits with status 1 on the first mismatch.
+ */
+public class ShardCheck {
+    private static final int SHARD_TIMEOUT_MILLIS = 10_000;
+    private static final long PEER_START_TIMEOUT_MILLIS = 20_000;
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    private static final List<String> REQUESTS = List.of(
+            "SUM_GRID;x:0:0.002:1,y:0:0.002:1;((x*y)-(x/(y+1)))",
+            "MIN_GRID;x:-1:0.004:1,y:-1:0.004:1;(((x*y)-0.3)^2)",
+            "MAX_GRID;x:-1:0.004:1,y:-1:0.004:1;((x-y)*(x+(y*y)))",
+            "AVG_GRID;a:0:0.005:1,b:0:0.005:2;((a*b)-(b/(a+1)));(a+b)",
+            "STDDEV_GRID;x:0:0.002:1,y:0:0.002:1;(x*y)",
+            "SUM_LIST;x:0:1:199999,y:1:1:200000;((x*2)+y)",
+            "MAX_GRID;x:0:0.002:1,y:0:0.002:1;(x+z)");
+
+    /**
+     * The main method of the shard check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        AsyncLogger.setLevel(AsyncLogger.Level.ERROR);
+        List<Process> peers = new ArrayList<>();
+        try {
+            InetSocketAddress first = startPeer(peers);
+            InetSocketAddress second = startPeer(peers);
+            InetSocketAddress unreachable = new InetSocketAddress("localhost", freePort());
+            InetSocketAddress alsoUnreachable = new InetSocketAddress("localhost", freePort());
+
+            Server reference = new Server(0);
+            int mismatches = 0;
+            mismatches += check("two peers", List.of(first, second), reference);
+            mismatches += check("one peer down", List.of(first, unreachable), reference);
+            mismatches += check("all peers down", List.of(unreachable, alsoUnreachable), reference);
+            if (mismatches > 0) {
+                System.out.printf("%d mismatches%n", mismatches);
+                System.exit(1);
+            }
+            System.out.println("All distributed results match the local ones");
+        } finally {
+            peers.forEach(Process::destroy);
+        }
+    }
+
+    private static int check(String setup, List<InetSocketAddress> peers, Server reference) throws Exception {
+        Server coordinator = new Server(0);
+        coordinator.setShardCoordinator(new ShardCoordinator(peers, SHARD_TIMEOUT_MILLIS));
+        RequestParser requestParser = new RequestParser();
+        int mismatches = 0;
+        for (String request : REQUESTS) {
+            String expected = result(reference, requestParser, request);
+            String actual = result(coordinator, requestParser, request);
+            boolean matches = matches(expected, actual);
+            System.out.printf("%-16s %-60s %s%n", setup, request, matches ? "ok" : "MISMATCH: expected " + expected + ", got " + actual);
+            if (!matches) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static String result(Server server, RequestParser requestParser, String request) {
+        Response response;
+        try {
+            response = requestParser.parseRequest(request).process(server, System.nanoTime());
+        } catch (Exception e) {
+            return "ERR: " + e.getMessage();
+        }
+        String printed = response.printResponse();
+        return printed.startsWith("OK;") ? printed.substring(printed.indexOf(';', 3) + 1) : printed;
+    }
+
+    /**
+     * Compares two results, allowing for the different order in which the shards are summed.
+     */
+    private static boolean matches(String expected, String actual) {
+        if (expected.equals(actual)) {
+            return true;
+        }
+        try {
+            double expectedValue = Double.parseDouble(expected);
+            double actualValue = Double.parseDouble(actual);
+            return Math.abs(expectedValue - actualValue) <= RELATIVE_TOLERANCE * Math.max(1, Math.abs(expectedValue));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static InetSocketAddress startPeer(List<Process> peers) throws IOException, InterruptedException {
+        int port = freePort();
+        Process peer = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), Server.class.getName(), String.valueOf(port), "--log-level=off")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        peers.add(peer);
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+        long deadline = System.currentTimeMillis() + PEER_START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, 1000);
+                return address;
+            } catch (IOException e) {
+                if (!peer.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Peer on port " + port + " did not start", e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.exceptions.ProcessException;
+import it.units.expressionserver.server.components.SingleFlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Behavior check of the SingleFlight coalescing identical computations.
+ * Several threads compute the same key while its first computation is held back until all the others are waiting
+ * for it: the computation must run once and its result, its ProcessException or its Error must reach every thread;
+ * once it completes the key must be forgotten, so that a later call computes it again.
+ * The check exits with status 1 on the first unexpected outcome.
+ */
+public class SingleFlightCheck {
+    private static final int CALLERS = 8;
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final String KEY = "MIN_GRID;x:0:1:3;(x+1)";
+
+    private interface Outcome {
+        String compute() throws ProcessException;
+    }
+
+    /**
+     * The main method of the single-flight check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        boolean passed = check("shared result", singleFlight, () -> "1.000000", "1.000000")
+                & check("shared ProcessException", singleFlight, () -> {
+                    throw new ProcessException("Failed to compute min");
+                }, "ProcessException: Failed to compute min")
+                & check("shared Error", singleFlight, () -> {
+                    throw new AssertionError("computation error");
+                }, "AssertionError: computation error");
+        AtomicInteger invocations = new AtomicInteger();
+        singleFlight.compute(KEY, () -> String.valueOf(invocations.incrementAndGet()));
+        singleFlight.compute(KEY, () -> String.valueOf(invocations.incrementAndGet()));
+        boolean forgotten = invocations.get() == 2 && singleFlight.size() == 0;
+        System.out.printf("%-28s %s%n", "completed key forgotten", forgotten ? "ok" : "FAILED: " + invocations.get() + " computations, " + singleFlight.size() + " running");
+        if (!(passed && forgotten)) {
+            System.exit(1);
+        }
+        System.out.println("All single-flight checks passed");
+    }
+
+    private static boolean check(String name, SingleFlight singleFlight, Outcome outcome, String expected) throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String[] observed = new String[CALLERS];
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            int caller = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    observed[caller] = singleFlight.compute(KEY, () -> {
+                        invocations.incrementAndGet();
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return outcome.compute();
+                    });
+                } catch (ProcessException | RuntimeException | Error e) {
+                    observed[caller] = e.getClass().getSimpleName() + ": " + e.getMessage();
+                }
+            }, "single-flight-check-" + i);
+            thread.setDaemon(true);
+            callers.add(thread);
+            thread.start();
+            if (i == 0 && !started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return report(name, "the first computation did not start");
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (callers.stream().skip(1).anyMatch(thread -> thread.getState() != Thread.State.WAITING)) {
+            if (System.nanoTime() > deadline) {
+                return report(name, "the other callers are not waiting");
+            }
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread thread : callers) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            if (thread.isAlive()) {
+                return report(name, "a caller is still waiting after " + TIMEOUT_SECONDS + " s");
+            }
+        }
+        if (invocations.get() != 1) {
+            return report(name, invocations.get() + " computations instead of 1");
+        }
+        for (String result : observed) {
+            if (!Objects.equals(result, expected)) {
+                return report(name, "a caller got " + result + " instead of " + expected);
+            }
+        }
+        return report(name, null);
+    }
+
+    private static boolean report(String name, String failure) {
+        System.out.printf("%-28s %s%n", name, failure == null ? "ok" : "FAILED: " + failure);
+        return failure == null;
+    }
+}
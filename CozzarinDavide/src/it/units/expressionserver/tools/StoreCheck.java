@@ -0,0 +1,140 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.domain.request.ComputationRequest;
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.RequestParser;
+import it.units.expressionserver.server.components.ResultStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Behavior check of the persistent ResultStore, in a temporary directory.
+ * The results of a set of computation requests are stored by a server, and must be found unchanged by a server
+ * reopening the store, as after a restart; a store much smaller than the results put in it must keep the most
+ * recent ones, across compactions and a reopening, and must hold the last result put for a key;
+ * a file that is not a store log must be rejected.
+ * The check exits with status 1 on the first unexpected outcome.
+ */
+public class StoreCheck {
+    private static final int STORE_CAPACITY = 1 << 20;
+    private static final int SMALL_STORE_CAPACITY = 16 * 1024;
+    private static final int SMALL_STORE_RESULTS = 5_000;
+    private static final int RECENT_RESULTS = 50;
+
+    private static final List<String> REQUESTS = List.of(
+            "MIN_GRID;x:-1:0.1:1,y:-10:1:20;((x+(2.0^y))/(1-x))",
+            "MAX_GRID;x:0:0.05:1,y:0:0.05:1,z:0:0.5:2;(((x*y)-z)^2)",
+            "AVG_GRID;a:0:0.01:1,b:0:0.1:2;((a*b)-(b/(a+1)));(a+b)",
+            "COUNT_GRID;x:0:1:99,y:0:1:99;x",
+            "SUM_LIST;x:0:1:999,y:1:1:1000;((x*2)+y)",
+            "STDDEV_LIST;x:0:0.001:1;(x^0.5)",
+            "MEDIAN_GRID;x:0:0.02:1,y:0:0.02:1;(x+y)");
+
+    /**
+     * The main method of the store check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("result-store-check");
+        try {
+            boolean passed = checkRestart(directory.resolve("restart"))
+                    & checkEviction(directory.resolve("eviction"))
+                    & checkCorruption(directory.resolve("corruption"));
+            if (!passed) {
+                System.exit(1);
+            }
+            System.out.println("All result store checks passed");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static boolean checkRestart(Path directory) throws Exception {
+        RequestParser requestParser = new RequestParser();
+        List<String> results = new ArrayList<>();
+        try (ResultStore resultStore = ResultStore.open(directory, STORE_CAPACITY)) {
+            Server server = new Server(0);
+            server.setResultStore(resultStore);
+            for (String request : REQUESTS) {
+                results.add(((ComputationRequest) requestParser.parseRequest(request)).compute(server));
+            }
+        }
+        boolean passed = true;
+        try (ResultStore resultStore = ResultStore.open(directory, STORE_CAPACITY)) {
+            for (int i = 0; i < REQUESTS.size(); i++) {
+                ComputationRequest request = (ComputationRequest) requestParser.parseRequest(REQUESTS.get(i));
+                String stored = resultStore.get(request.toCanonicalString());
+                if (!results.get(i).equals(stored)) {
+                    System.out.printf("%-24s FAILED: %s stored as %s instead of %s%n", "restart", REQUESTS.get(i), stored, results.get(i));
+                    passed = false;
+                }
+            }
+        }
+        if (passed) {
+            System.out.printf("%-24s ok%n", "restart");
+        }
+        return passed;
+    }
+
+    private static boolean checkEviction(Path directory) throws IOException {
+        try (ResultStore resultStore = ResultStore.open(directory, SMALL_STORE_CAPACITY)) {
+            for (int i = 0; i < SMALL_STORE_RESULTS; i++) {
+                resultStore.put(key(i), result(i));
+            }
+            resultStore.put(key(SMALL_STORE_RESULTS - 1), "overwritten");
+        }
+        boolean passed = true;
+        try (ResultStore resultStore = ResultStore.open(directory, SMALL_STORE_CAPACITY)) {
+            for (int i = SMALL_STORE_RESULTS - RECENT_RESULTS; i < SMALL_STORE_RESULTS; i++) {
+                String expected = i == SMALL_STORE_RESULTS - 1 ? "overwritten" : result(i);
+                String stored = resultStore.get(key(i));
+                if (!expected.equals(stored)) {
+                    System.out.printf("%-24s FAILED: %s stored as %s instead of %s%n", "eviction", key(i), stored, expected);
+                    passed = false;
+                }
+            }
+            if (resultStore.get(key(0)) != null) {
+                System.out.printf("%-24s FAILED: the oldest result was not evicted%n", "eviction");
+                passed = false;
+            }
+        }
+        if (passed) {
+            System.out.printf("%-24s ok%n", "eviction");
+        }
+        return passed;
+    }
+
+    private static boolean checkCorruption(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("results.log"), new byte[64]);
+        ResultStore resultStore;
+        try {
+            resultStore = ResultStore.open(directory, SMALL_STORE_CAPACITY);
+        } catch (IOException e) {
+            System.out.printf("%-24s ok%n", "corruption");
+            return true;
+        }
+        resultStore.close();
+        System.out.printf("%-24s FAILED: a file of zeros was opened as a store%n", "corruption");
+        return false;
+    }
+
+    private static String key(int i) {
+        return "SUM_GRID;x:0:1:" + i + ";(x+1)";
+    }
+
+    private static String result(int i) {
+        return String.format("%.6f", (i + 1) * (i + 2) / 2.0);
+    }
+}
@@ -0,0 +1,210 @@
+package it.units.expressionserver.tools;
+
+import it.units.expressionserver.server.Server;
+import it.units.expressionserver.server.components.AsyncLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Behavior check of the progressive STREAM requests, against a server started in this process.
+ * A streamed computation must send well-formed partial results and end with the same result as the plain request;
+ * a stopped one must end early with a single response, the stop command getting none; and a request line
+ * received only in part while a computation is streamed must neither hold the computation back
+ * nor be lost, its response following the streamed one once the line is complete, even when the carriage return
+ * and the line feed of its terminator arrive apart.
+ * The check exits with status 1 on the first unexpected outcome.
+ */
+public class StreamCheck {
+    private static final String COMPUTATION = "AVG_GRID;x:-1:0.0005:1,y:-1:0.0005:1;(((x*y)-0.3)^2)";
+    private static final String STREAM = "STREAM 20 " + COMPUTATION;
+    private static final String SHORT_REQUEST = "MIN_LIST;x:0:1:3;(x+1)";
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    /**
+     * The main method of the stream check.
+     *
+     * @param args No arguments are expected.
+     */
+    public static void main(String[] args) throws Exception {
+        AsyncLogger.setLevel(AsyncLogger.Level.WARN);
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        Server server = new Server(port);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Unable to start the server: " + e.getMessage());
+            }
+        }, "stream-check-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try (Socket socket = connect(port)) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream output = socket.getOutputStream();
+            boolean passed = checkComplete(reader, output)
+                    & checkStop(reader, output)
+                    & checkPartialLine(reader, output)
+                    & checkSplitTerminator(port);
+            send(output, "BYE\n");
+            if (!passed) {
+                System.exit(1);
+            }
+        } finally {
+            server.getExecutorService().shutdown();
+        }
+        System.out.println("All stream checks passed");
+    }
+
+    private static boolean checkComplete(BufferedReader reader, OutputStream output) throws IOException {
+        send(output, COMPUTATION + "\n" + STREAM + "\n");
+        String expected = result(reader.readLine());
+        List<String> partials = new ArrayList<>();
+        String response = readStreamed(reader, partials);
+        String failure = null;
+        if (partials.isEmpty()) {
+            failure = "no partial result";
+        } else if (!partials.stream().allMatch(partial -> partial.matches("PARTIAL;[0-9.]+;-?[0-9.]+;0\\.[0-9]{6}"))) {
+            failure = "malformed partial result " + partials;
+        } else if (!matches(expected, result(response))) {
+            failure = "streamed result " + result(response) + " instead of " + expected;
+        }
+        return report("complete stream (" + partials.size() + " partial results)", failure);
+    }
+
+    private static boolean checkStop(BufferedReader reader, OutputStream output) throws IOException {
+        send(output, STREAM + "\n");
+        String firstLine = reader.readLine();
+        if (firstLine == null || !firstLine.startsWith("PARTIAL;")) {
+            return report("stopped stream", "no partial result before the response " + firstLine);
+        }
+        send(output, "STOP\n" + SHORT_REQUEST + "\n");
+        List<String> partials = new ArrayList<>();
+        String response = readStreamed(reader, partials);
+        String next = reader.readLine();
+        String failure = null;
+        if (response == null || !response.startsWith("OK;")) {
+            failure = "stream ended with " + response;
+        } else if (!"1.000000".equals(result(next))) {
+            failure = "the request after the stop command was answered with " + next;
+        }
+        return report("stopped stream", failure);
+    }
+
+    private static boolean checkPartialLine(BufferedReader reader, OutputStream output) throws IOException {
+        send(output, STREAM + "\n");
+        String firstLine = reader.readLine();
+        if (firstLine == null || !firstLine.startsWith("PARTIAL;")) {
+            return report("line received in part", "no partial result before the response " + firstLine);
+        }
+        int half = SHORT_REQUEST.length() / 2;
+        send(output, SHORT_REQUEST.substring(0, half));
+        List<String> partials = new ArrayList<>();
+        String response = readStreamed(reader, partials);
+        send(output, SHORT_REQUEST.substring(half) + "\n");
+        String next = reader.readLine();
+        String failure = null;
+        if (response == null || !response.startsWith("OK;")) {
+            failure = "stream ended with " + response;
+        } else if (!"1.000000".equals(result(next))) {
+            failure = "the request received in part was answered with " + next;
+        }
+        return report("line received in part", failure);
+    }
+
+    /**
+     * Sends the quit command with its line terminator split around the end of a stream, on a connection of its own,
+     * which the server must then close instead of answering the command as a request.
+     */
+    private static boolean checkSplitTerminator(int port) throws IOException, InterruptedException {
+        try (Socket socket = connect(port)) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream output = socket.getOutputStream();
+            send(output, STREAM + "\n");
+            String firstLine = reader.readLine();
+            if (firstLine == null || !firstLine.startsWith("PARTIAL;")) {
+                return report("terminator received in part", "no partial result before the response " + firstLine);
+            }
+            send(output, "BYE\r");
+            List<String> partials = new ArrayList<>();
+            String response = readStreamed(reader, partials);
+            send(output, "\n");
+            String next = reader.readLine();
+            String failure = null;
+            if (response == null || !response.startsWith("OK;")) {
+                failure = "stream ended with " + response;
+            } else if (next != null) {
+                failure = "the quit command ended by a split CRLF was answered with " + next;
+            }
+            return report("terminator received in part", failure);
+        }
+    }
+
+    /**
+     * Reads the partial results of a streamed request and returns its response; a read timing out
+     * means that the computation is held back.
+     */
+    private static String readStreamed(BufferedReader reader, List<String> partials) throws IOException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("PARTIAL;")) {
+                partials.add(line);
+            }
+            return line;
+        } catch (SocketTimeoutException e) {
+            return "nothing within " + READ_TIMEOUT_MILLIS + " ms";
+        }
+    }
+
+    private static boolean report(String name, String failure) {
+        System.out.printf("%-46s %s%n", name, failure == null ? "ok" : "FAILED: " + failure);
+        return failure == null;
+    }
+
+    private static void send(OutputStream output, String text) throws IOException {
+        output.write(text.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    private static String result(String response) {
+        return response == null || !response.startsWith("OK;") ? response : response.substring(response.indexOf(';', 3) + 1);
+    }
+
+    private static boolean matches(String expected, String actual) {
+        try {
+            double expectedValue = Double.parseDouble(expected);
+            double actualValue = Double.parseDouble(actual);
+            return Math.abs(expectedValue - actualValue) <= RELATIVE_TOLERANCE * Math.max(1, Math.abs(expectedValue));
+        } catch (NullPointerException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package it.units.expressionserver.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a traffic capture recorded by the TrafficRecorder against one or two running servers, and reports the latencies.
+ * Each captured connection is replayed on its own connection and thread, and each request is sent at the same offset
+ * from the start of the replay as it was received from the start of the capture (or as soon as the response to the previous
+ * request on the same connection arrives, if that is later); the stop commands of streamed requests are sent at their
+ * captured time, while the streamed result is awaited. When two servers are given, the capture is replayed
+ * against each of them in turn and the differences between the latencies are reported too.
+ */
+public class TrafficReplayer {
+    private static final String USAGE = "Usage: java -cp CozzarinDavide.jar it.units.expressionserver.tools.TrafficReplayer <capture file> <host:port> [<host:port>]";
+    private static final String QUIT_COMMAND = "BYE";
+    private static final String STOP_COMMAND = "STOP";
+    private static final String PARTIAL_PREFIX = "PARTIAL;";
+    private static final long RESPONSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private record CapturedRequest(long time, String line) {
+    }
+
+    private record ReplayReport(int requests, int errors, double[] latenciesMillis) {
+    }
+
+    /**
+     * The main method of the replay tool.
+     *
+     * @param args The capture file, followed by the address of one or two servers.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            Map<Integer, List<CapturedRequest>> connections = readCapture(Path.of(args[0]));
+            List<ReplayReport> reports = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                ReplayReport report = replay(connections, args[i]);
+                printReport(args[i], report);
+                reports.add(report);
+            }
+            if (reports.size() == 2) {
+                printDifference(reports.get(0), reports.get(1));
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Unable to replay the capture: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a capture file and groups its requests by connection, in order of arrival.
+     *
+     * @param capturePath The path of the capture file.
+     * @return The captured requests of each connection.
+     * @throws IOException If the capture file cannot be read.
+     */
+    private static Map<Integer, List<CapturedRequest>> readCapture(Path capturePath) throws IOException {
+        Map<Integer, List<CapturedRequest>> connections = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(capturePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= Long.BYTES + 2 * Integer.BYTES) {
+                long time = buffer.getLong();
+                int connectionId = buffer.getInt();
+                byte[] line = new byte[buffer.getInt()];
+                buffer.get(line);
+                connections.computeIfAbsent(connectionId, id -> new ArrayList<>())
+                        .add(new CapturedRequest(time, new String(line, StandardCharsets.UTF_8)));
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * Replays all the captured connections concurrently against a server.
+     *
+     * @param connections The captured requests of each connection.
+     * @param address     The address of the server, of the form host:port.
+     * @return The report of the replay.
+     * @throws InterruptedException If the replay is interrupted.
+     */
+    private static ReplayReport replay(Map<Integer, List<CapturedRequest>> connections, String address) throws InterruptedException {
+        int separator = address.lastIndexOf(':');
+        String host = address.substring(0, separator);
+        int port = Integer.parseInt(address.substring(separator + 1));
+        long captureStart = connections.values().stream().mapToLong(requests -> requests.get(0).time()).min().orElse(0);
+        long replayStart = System.nanoTime();
+
+        List<double[]> latencies = new ArrayList<>();
+        int[] errors = new int[connections.size()];
+        List<Thread> threads = new ArrayList<>();
+        int index = 0;
+        for (List<CapturedRequest> requests : connections.values()) {
+            double[] connectionLatencies = new double[requests.size()];
+            Arrays.fill(connectionLatencies, Double.NaN);
+            latencies.add(connectionLatencies);
+            int connectionIndex = index++;
+            Thread thread = new Thread(() -> {
+                try {
+                    errors[connectionIndex] = replayConnection(requests, host, port, replayStart - captureStart, connectionLatencies);
+                } catch (IOException e) {
+                    System.err.printf("Connection to %s failed: %s%n", address, e.getMessage());
+                    errors[connectionIndex] = requests.size();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double[] allLatencies = latencies.stream().flatMapToDouble(Arrays::stream).filter(latency -> !Double.isNaN(latency)).sorted().toArray();
+        return new ReplayReport(allLatencies.length, Arrays.stream(errors).sum(), allLatencies);
+    }
+
+    /**
+     * Replays the requests of a single connection, waiting for each response before sending the next request.
+     * The partial results of a streamed request are skipped, and the stop commands following it are sent at their
+     * captured time while its response is awaited; since the server does not answer a stop command, no response is
+     * awaited for it. A server not answering within the response timeout fails the connection.
+     *
+     * @return The number of error responses.
+     */
+    private static int replayConnection(List<CapturedRequest> requests, String host, int port, long timeShift, double[] latenciesMillis) throws IOException {
+        int errors = 0;
+        boolean[] sent = new boolean[requests.size()];
+        try (Socket socket = new Socket(host, port)) {
+            LineReader reader = new LineReader(socket.getInputStream());
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            for (int i = 0; i < requests.size(); i++) {
+                if (sent[i]) {
+                    continue;
+                }
+                CapturedRequest request = requests.get(i);
+                long delay = request.time() + timeShift - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                writer.println(request.line());
+                sent[i] = true;
+                if (request.line().equals(QUIT_COMMAND)) {
+                    break;
+                }
+                if (request.line().equals(STOP_COMMAND)) {
+                    continue;
+                }
+                long sendTime = System.nanoTime();
+                String response = awaitResponse(requests, i, socket, reader, writer, timeShift, sent);
+                latenciesMillis[i] = (System.nanoTime() - sendTime) / 1e6;
+                if (response.startsWith("ERR")) {
+                    errors++;
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Reads the response to the request at the given index, skipping the partial results,
+     * and sending the stop commands captured right after the request once their time comes.
+     */
+    private static String awaitResponse(List<CapturedRequest> requests, int index, Socket socket, LineReader reader, PrintWriter writer,
+                                        long timeShift, boolean[] sent) throws IOException {
+        long deadline = System.nanoTime() + RESPONSE_TIMEOUT_NANOS;
+        int nextStop = index + 1;
+        while (true) {
+            long now = System.nanoTime();
+            while (nextStop < requests.size() && requests.get(nextStop).line().equals(STOP_COMMAND)
+                    && requests.get(nextStop).time() + timeShift <= now) {
+                writer.println(STOP_COMMAND);
+                sent[nextStop++] = true;
+            }
+            long waitNanos = deadline - now;
+            if (waitNanos <= 0) {
+                throw new IOException("No response from the server to " + requests.get(index).line());
+            }
+            if (nextStop < requests.size() && requests.get(nextStop).line().equals(STOP_COMMAND)) {
+                waitNanos = Math.min(waitNanos, requests.get(nextStop).time() + timeShift - now);
+            }
+            socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            if (line == null) {
+                throw new IOException("Connection closed by server");
+            }
+            if (!line.startsWith(PARTIAL_PREFIX)) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Reads lines from a socket with a read timeout, keeping the characters of a line received only in part
+     * when the timeout expires, so that the line is completed by the next read.
+     */
+    private static class LineReader {
+        private final InputStream input;
+        private final byte[] buffer = new byte[8192];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private int position;
+        private int limit;
+
+        private LineReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return The next line, without its terminator, or null at the end of the stream.
+         * @throws SocketTimeoutException If no complete line is received within the timeout of the socket.
+         */
+        private String readLine() throws IOException {
+            while (true) {
+                if (position == limit) {
+                    int read = input.read(buffer);
+                    if (read < 0) {
+                        return null;
+                    }
+                    position = 0;
+                    limit = read;
+                }
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    byte[] bytes = line.toByteArray();
+                    line.reset();
+                    int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+                }
+                line.write(b);
+            }
+        }
+    }
+
+    private static void printReport(String address, ReplayReport report) {
+        System.out.printf(Locale.US, "%s: %d requests, %d errors, mean %.3f ms, %s, max %.3f ms%n",
+                address, report.requests(), report.errors(), mean(report.latenciesMillis()),
+                formatPercentiles(report.latenciesMillis()), percentile(report.latenciesMillis(), 1));
+    }
+
+    private static void printDifference(ReplayReport first, ReplayReport second) {
+        StringBuilder sb = new StringBuilder("difference (second - first): ");
+        sb.append(String.format(Locale.US, "mean %+.3f ms", mean(second.latenciesMillis()) - mean(first.latenciesMillis())));
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format(Locale.US, ", p%s %+.3f ms", formatRank(percentile),
+                    percentile(second.latenciesMillis(), percentile) - percentile(first.latenciesMillis(), percentile)));
+        }
+        sb.append(String.format(Locale.US, ", max %+.3f ms", percentile(second.latenciesMillis(), 1) - percentile(first.latenciesMillis(), 1)));
+        System.out.println(sb);
+    }
+
+    private static String formatPercentiles(double[] sortedLatencies) {
+        StringBuilder sb = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            if (!sb.isEmpty()) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.US, "p%s %.3f ms", formatRank(percentile), percentile(sortedLatencies, percentile)));
+        }
+        return sb.toString();
+    }
+
+    private static String formatRank(double percentile) {
+        return Double.toString(percentile * 100).replaceAll("\\.0$", "");
+    }
+
+    private static double mean(double[] latencies) {
+        return Arrays.stream(latencies).average().orElse(Double.NaN);
+    }
+
+    private static double percentile(double[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)];
+    }
+}